@@ -5,6 +5,7 @@ module ozon.api {
     requires reactor.netty.http;
     requires com.fasterxml.jackson.databind;
     requires com.fasterxml.jackson.annotation;
+    requires io.netty.codec;
     requires io.netty.codec.http;
     requires org.reactivestreams;
     requires io.netty.buffer;
@@ -14,6 +15,7 @@ module ozon.api {
     exports ru.vzotov.ozon;
     exports ru.vzotov.ozon.model;
     exports ru.vzotov.ozon.security;
+    exports ru.vzotov.ozon.store;
     opens ru.vzotov.ozon.model to com.fasterxml.jackson.databind;
     opens ru.vzotov.ozon.security to com.fasterxml.jackson.databind;
 }
@@ -0,0 +1,175 @@
+package ru.vzotov.ozon;
+
+import io.netty.handler.codec.http.cookie.ClientCookieEncoder;
+import io.netty.handler.codec.http.cookie.Cookie;
+import io.netty.handler.codec.http.cookie.DefaultCookie;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import ru.vzotov.ozon.security.SecurityApi;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Keeps the finance session of an account and refreshes it in background before it expires.
+ * <p>
+ * Requests are served from the current session as long as it is valid. Only the first login, or a login after the
+ * session has actually expired, is awaited by requests. After a background refresh that failed or returned no
+ * session, the next one is not attempted before the retry delay has passed. The refresh timer and a running login are
+ * cancelled by {@link #dispose()}.
+ */
+final class AuthorizationCache implements Disposable {
+
+    private static final Logger log = LoggerFactory.getLogger(AuthorizationCache.class);
+
+    private static final Duration RETRY_DELAY = Duration.ofSeconds(30);
+
+    /**
+     * Creates a new session. The argument is the current session to refresh, or null for the first login.
+     */
+    private final Function<Session, Mono<Session>> login;
+
+    private final Duration refreshAhead;
+
+    private final AtomicReference<Session> current = new AtomicReference<>();
+
+    private final AtomicReference<Mono<Session>> inFlight = new AtomicReference<>();
+
+    private final Disposable.Swap scheduled = Disposables.swap();
+
+    private final Disposable.Composite logins = Disposables.composite();
+
+    private volatile Instant retryAt = Instant.MIN;
+
+    AuthorizationCache(Function<Session, Mono<Session>> login, Duration refreshAhead) {
+        this.login = requireNonNull(login);
+        this.refreshAhead = requireNonNull(refreshAhead);
+    }
+
+    Mono<Session> session() {
+        return Mono.defer(() -> {
+            final Session session = current.get();
+            if (session == null || session.isExpired(Instant.now())) {
+                return refresh();
+            }
+            refreshIfDue();
+            return Mono.just(session);
+        });
+    }
+
+    @Override
+    public void dispose() {
+        scheduled.dispose();
+        logins.dispose();
+    }
+
+    @Override
+    public boolean isDisposed() {
+        return scheduled.isDisposed();
+    }
+
+    private Instant refreshAt(Session session) {
+        return session.expiresAt().equals(Instant.MAX) ? Instant.MAX : session.expiresAt().minus(refreshAhead);
+    }
+
+    /**
+     * Refreshes the current session in background if it is about to expire, and no refresh failed recently.
+     */
+    private void refreshIfDue() {
+        final Session session = current.get();
+        final Instant now = Instant.now();
+        if (session == null || now.isBefore(refreshAt(session)) || now.isBefore(retryAt) || isDisposed()) return;
+        refresh().switchIfEmpty(Mono.error(() -> new IllegalStateException("Login returned no session"))).subscribe(
+                refreshed -> log.debug("Finance session refreshed, expires at {}", refreshed.expiresAt()),
+                e -> {
+                    log.warn("Unable to refresh finance session", e);
+                    schedule(RETRY_DELAY);
+                }
+        );
+    }
+
+    private void schedule(Duration delay) {
+        scheduled.update(Mono.delay(delay.isNegative() ? Duration.ZERO : delay)
+                .subscribe(t -> refreshIfDue()));
+    }
+
+    /**
+     * Starts a login unless one is already running, concurrent callers share its result.
+     */
+    private Mono<Session> refresh() {
+        for (; ; ) {
+            final Mono<Session> running = inFlight.get();
+            if (running != null) return running;
+
+            final Sinks.One<Session> result = Sinks.one();
+            final Mono<Session> shared = result.asMono();
+            if (!inFlight.compareAndSet(null, shared)) continue;
+
+            final Disposable.Swap subscription = Disposables.swap();
+            logins.add(subscription);
+            subscription.update(login.apply(current.get()).doOnCancel(() -> {
+                if (inFlight.compareAndSet(shared, null)) {
+                    result.tryEmitError(new IllegalStateException("Authorization cache is disposed"));
+                }
+            }).doFinally(signal -> logins.remove(subscription)).subscribe(
+                    session -> {
+                        current.set(session);
+                        retryAt = Instant.MIN;
+                        inFlight.set(null);
+                        final Instant refreshAt = refreshAt(session);
+                        if (!refreshAt.equals(Instant.MAX)) {
+                            schedule(Duration.between(Instant.now(), refreshAt));
+                        }
+                        result.tryEmitValue(session);
+                    },
+                    e -> {
+                        retryAt = Instant.now().plus(RETRY_DELAY);
+                        inFlight.set(null);
+                        result.tryEmitError(e);
+                    },
+                    () -> {
+                        if (inFlight.get() == shared) {
+                            retryAt = Instant.now().plus(RETRY_DELAY);
+                            inFlight.set(null);
+                            result.tryEmitEmpty();
+                        }
+                    }
+            ));
+            return shared;
+        }
+    }
+
+    /**
+     * @param expiresAt           expiration time of the finance access token, {@link Instant#MAX} if unknown
+     * @param ozonCookieHeader    encoded {@code Cookie} header with the Ozon authentication cookies
+     * @param financeCookieHeader encoded {@code Cookie} header with the Ozon and finance cookies
+     */
+    record Session(SecurityApi.OzonAuthorization authorization, Instant expiresAt,
+                   String ozonCookieHeader, String financeCookieHeader) {
+
+        Session(SecurityApi.OzonAuthorization authorization, Instant expiresAt) {
+            this(authorization, expiresAt,
+                    encode(authorization.authentication().cookies()),
+                    encode(authorization.cookies()));
+        }
+
+        private static String encode(Map<String, String> cookies) {
+            return ClientCookieEncoder.STRICT.encode(cookies.entrySet().stream()
+                    .map(cookie -> (Cookie) new DefaultCookie(cookie.getKey(), cookie.getValue()))
+                    .toList());
+        }
+
+        boolean isExpired(Instant now) {
+            return !now.isBefore(expiresAt);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package ru.vzotov.ozon;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * Persists the position of paginated streams, so that an interrupted stream resumes from its last committed page.
+ * <p>
+ * A stream is identified by a key built from the account and the request. Its checkpoint is an opaque string: the
+ * cursors of a client operations page, or the URL of a composer page.
+ *
+ * @see OzonBuilder#checkpoints(CheckpointStore)
+ */
+public interface CheckpointStore {
+
+    /**
+     * @return the last saved checkpoint of the stream, or empty
+     */
+    Mono<String> load(String stream);
+
+    Mono<Void> save(String stream, String checkpoint);
+
+    /**
+     * Removes the checkpoint of a completed stream.
+     */
+    Mono<Void> clear(String stream);
+}
@@ -0,0 +1,77 @@
+package ru.vzotov.ozon;
+
+import java.time.Duration;
+
+/**
+ * Fails requests fast while upstream is degraded.
+ * <p>
+ * The breaker opens after {@code failureThreshold} consecutive failures and rejects requests for {@code openDuration}.
+ * Then a single trial request is let through: its success closes the breaker, its failure opens it again.
+ */
+final class CircuitBreaker {
+
+    private enum State {CLOSED, OPEN, HALF_OPEN}
+
+    private final int failureThreshold;
+
+    private final long openNanos;
+
+    private State state = State.CLOSED;
+
+    private int failures;
+
+    private long openedAt;
+
+    private boolean trial;
+
+    CircuitBreaker(int failureThreshold, Duration openDuration) {
+        if (failureThreshold <= 0) throw new IllegalArgumentException("failureThreshold must be positive: " + failureThreshold);
+        if (openDuration.isNegative()) throw new IllegalArgumentException("openDuration must not be negative");
+        this.failureThreshold = failureThreshold;
+        this.openNanos = openDuration.toNanos();
+    }
+
+    /**
+     * @return true if the request may be sent
+     */
+    synchronized boolean tryAcquire(long now) {
+        switch (state) {
+            case OPEN -> {
+                if (now - openedAt < openNanos) return false;
+                state = State.HALF_OPEN;
+                trial = true;
+                return true;
+            }
+            case HALF_OPEN -> {
+                if (trial) return false;
+                trial = true;
+                return true;
+            }
+            default -> {
+                return true;
+            }
+        }
+    }
+
+    synchronized void onSuccess() {
+        state = State.CLOSED;
+        failures = 0;
+        trial = false;
+    }
+
+    synchronized void onFailure(long now) {
+        trial = false;
+        if (state == State.HALF_OPEN || ++failures >= failureThreshold) {
+            state = State.OPEN;
+            openedAt = now;
+            failures = 0;
+        }
+    }
+
+    /**
+     * Called when a request ends without an outcome, so that a cancelled trial does not keep the breaker half open.
+     */
+    synchronized void onCancel() {
+        trial = false;
+    }
+}
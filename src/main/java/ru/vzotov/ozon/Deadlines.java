@@ -0,0 +1,51 @@
+package ru.vzotov.ozon;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+import ru.vzotov.ozon.OzonBuilder.Endpoint;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Deadlines of requests and of paginated streams.
+ * <p>
+ * A request deadline limits both the idle time between reads of the response and, for a response read as a whole,
+ * the total time of the exchange. A download is only limited by idle time, so large files are not cut. When a deadline
+ * expires the request is cancelled, and its connection is closed instead of being returned to the pool.
+ */
+final class Deadlines {
+
+    private final Map<Endpoint, Duration> timeouts;
+
+    private final Duration streamTimeout;
+
+    /**
+     * @param streamTimeout deadline of a whole paginated stream, or null
+     */
+    Deadlines(Map<Endpoint, Duration> timeouts, Duration streamTimeout) {
+        this.timeouts = timeouts.isEmpty() ? Map.of() : new EnumMap<>(timeouts);
+        this.streamTimeout = streamTimeout;
+    }
+
+    HttpClient client(Endpoint endpoint, HttpClient client) {
+        final Duration timeout = timeouts.get(endpoint);
+        return timeout == null ? client : client.responseTimeout(timeout);
+    }
+
+    <T> Mono<T> apply(Endpoint endpoint, Mono<T> request) {
+        final Duration timeout = timeouts.get(endpoint);
+        return timeout == null ? request : request.timeout(timeout);
+    }
+
+    <T> Flux<T> stream(Flux<T> pages) {
+        if (streamTimeout == null) return pages;
+        return Flux.defer(() -> {
+            final long deadline = System.nanoTime() + streamTimeout.toNanos();
+            return pages.timeout(Mono.delay(streamTimeout),
+                    page -> Mono.delay(Duration.ofNanos(Math.max(0, deadline - System.nanoTime()))));
+        });
+    }
+}
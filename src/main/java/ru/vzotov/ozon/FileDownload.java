@@ -0,0 +1,187 @@
+package ru.vzotov.ozon;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import reactor.netty.ByteBufFlux;
+import reactor.netty.http.client.HttpClientResponse;
+import ru.vzotov.ozon.model.OzonApi;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Download of a response body to a {@code .part} file next to the target, which is moved in place once complete.
+ * <p>
+ * Received buffers are retained and written to the file channel on a {@link Schedulers#boundedElastic()} worker, so
+ * that blocking writes do not stall the event loop; nothing is copied to the heap. A {@code .part} file left by an
+ * interrupted download is continued with a {@code Range} request; if the server sends the whole body instead, it is
+ * written from the start.
+ */
+final class FileDownload implements Closeable {
+
+    private static final Pattern CONTENT_RANGE = Pattern.compile("bytes (?:(\\d+)-\\d+|\\*)/(\\d+|\\*)");
+
+    private final Path target;
+
+    private final Path part;
+
+    private final FileChannel channel;
+
+    private final MessageDigest digest;
+
+    private final long started = System.nanoTime();
+
+    private long position;
+
+    private long transferred;
+
+    private FileDownload(Path target, Path part, FileChannel channel, MessageDigest digest) {
+        this.target = target;
+        this.part = part;
+        this.channel = channel;
+        this.digest = digest;
+    }
+
+    /**
+     * Opens the {@code .part} file of the target, and hashes what it already contains.
+     */
+    static FileDownload open(Path target) throws IOException {
+        final Path part = target.resolveSibling(target.getFileName() + ".part");
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        final FileChannel channel = FileChannel.open(part,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            final FileDownload download = new FileDownload(target, part, channel, digest);
+            final ByteBuffer buffer = ByteBuffer.allocateDirect(64 << 10);
+            while (channel.read(buffer, download.position) > 0) {
+                buffer.flip();
+                download.position += buffer.remaining();
+                digest.update(buffer);
+                buffer.clear();
+            }
+            return download;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return value of the {@code Range} header continuing the download, or null to request the whole body
+     */
+    synchronized String range() {
+        return position == 0 ? null : "bytes=" + position + "-";
+    }
+
+    /**
+     * Writes the body of the response, starting at the position the response says it starts from.
+     */
+    Mono<Void> receive(HttpClientResponse res, ByteBufFlux body) {
+        final int status = res.status().code();
+        if (status == HttpResponseStatus.OK.code()) {
+            return Mono.fromRunnable(this::reset).subscribeOn(Schedulers.boundedElastic()).then(write(body));
+        }
+        final Matcher range = CONTENT_RANGE.matcher(String.valueOf(res.responseHeaders().get(HttpHeaderNames.CONTENT_RANGE)));
+        if (status == HttpResponseStatus.PARTIAL_CONTENT.code() && range.matches() && range.group(1) != null) {
+            return Long.parseLong(range.group(1)) == position() ?
+                    write(body) :
+                    Mono.error(new IllegalStateException("Unexpected content range: " + range.group()));
+        }
+        if (status == HttpResponseStatus.REQUESTED_RANGE_NOT_SATISFIABLE.code() && range.matches()
+                && range.group(2).equals(String.valueOf(position()))) {
+            // the part file is already complete
+            return body.then();
+        }
+        final Mono<Void> error = Mono.error(OzonHttpException.of(res));
+        if (status == HttpResponseStatus.REQUESTED_RANGE_NOT_SATISFIABLE.code()) {
+            return Mono.fromRunnable(this::reset).subscribeOn(Schedulers.boundedElastic()).then(error);
+        }
+        return error;
+    }
+
+    /**
+     * Forces the file to disk and moves it to the target.
+     */
+    synchronized OzonApi.DownloadResult complete() throws IOException {
+        channel.truncate(position);
+        channel.force(true);
+        channel.close();
+        Files.move(part, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return new OzonApi.DownloadResult(target, position, transferred, Duration.ofNanos(System.nanoTime() - started),
+                HexFormat.of().formatHex(digest.digest()));
+    }
+
+    /**
+     * Closes the {@code .part} file, leaving it to be resumed.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    private synchronized long position() {
+        return position;
+    }
+
+    private synchronized void reset() {
+        try {
+            channel.truncate(0);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        position = 0;
+        digest.reset();
+    }
+
+    private Mono<Void> write(ByteBufFlux body) {
+        return body.retain()
+                .publishOn(Schedulers.boundedElastic())
+                .doOnNext(buf -> {
+                    try {
+                        write(buf);
+                    } finally {
+                        buf.release();
+                    }
+                })
+                .doOnDiscard(ByteBuf.class, ByteBuf::release)
+                .then();
+    }
+
+    private synchronized void write(ByteBuf buf) {
+        try {
+            final int length = buf.readableBytes();
+            int written = 0;
+            while (written < length) {
+                written += buf.getBytes(buf.readerIndex() + written, channel, position + written, length - written);
+            }
+            for (ByteBuffer nio : buf.nioBuffers()) {
+                digest.update(nio);
+            }
+            position += length;
+            transferred += length;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package ru.vzotov.ozon;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.function.UnaryOperator;
+
+/**
+ * Hedges idempotent requests: when the response has not arrived within a percentile of the recently observed
+ * latencies, a duplicate request is sent and the first response wins.
+ * <p>
+ * Each request earns {@code maxRate} of a hedge, and each hedge spends a whole one, so hedges never exceed the given
+ * share of requests. No hedges are sent until enough latencies are observed.
+ */
+final class Hedging {
+
+    private static final Logger log = LoggerFactory.getLogger(Hedging.class);
+
+    private static final int WINDOW = 256;
+
+    private static final int MIN_SAMPLES = 20;
+
+    private static final int RECOMPUTE_EVERY = 16;
+
+    private static final double MAX_BUDGET = 10;
+
+    private static final long MIN_DELAY = Duration.ofMillis(20).toNanos();
+
+    private final double percentile;
+
+    private final double maxRate;
+
+    private final long[] samples = new long[WINDOW];
+
+    private int count;
+
+    private int next;
+
+    private long threshold = -1;
+
+    private double budget;
+
+    Hedging(double percentile, double maxRate) {
+        if (!(percentile > 0 && percentile < 1)) throw new IllegalArgumentException("percentile must be in (0, 1): " + percentile);
+        if (!(maxRate >= 0 && maxRate <= 1)) throw new IllegalArgumentException("maxRate must be in [0, 1]: " + maxRate);
+        this.percentile = percentile;
+        this.maxRate = maxRate;
+    }
+
+    <T> Mono<T> apply(Mono<T> request) {
+        return apply(request, UnaryOperator.identity());
+    }
+
+    /**
+     * @param admission waits for the admission of each attempt, e.g. by a rate limiter, before it is sent. The wait
+     *                  is not part of the observed latency, and the hedge delay starts when the primary is admitted.
+     */
+    <T> Mono<T> apply(Mono<T> request, UnaryOperator<Mono<T>> admission) {
+        return Mono.defer(() -> {
+            final long delay = earn();
+            if (delay < 0) return admission.apply(timed(request, () -> {}));
+            final Sinks.Empty<Void> admitted = Sinks.empty();
+            final Mono<T> primary = admission.apply(timed(request, admitted::tryEmitEmpty));
+            final Mono<T> hedge = admitted.asMono()
+                    .then(Mono.delay(Duration.ofNanos(delay)))
+                    .flatMap(t -> {
+                        if (!trySpend()) return Mono.never();
+                        log.debug("Hedging request after {} ms", delay / 1_000_000);
+                        return admission.apply(timed(request, () -> {}));
+                    });
+            return Mono.firstWithSignal(primary, hedge);
+        });
+    }
+
+    /**
+     * @param onSend called when the request is subscribed, after its admission
+     */
+    private <T> Mono<T> timed(Mono<T> request, Runnable onSend) {
+        return Mono.defer(() -> {
+            onSend.run();
+            final long start = System.nanoTime();
+            return request.doOnNext(v -> record(System.nanoTime() - start));
+        });
+    }
+
+    /**
+     * Adds a request to the budget.
+     *
+     * @return the hedge delay in nanoseconds, or -1 if the request is not hedged
+     */
+    synchronized long earn() {
+        budget = Math.min(MAX_BUDGET, budget + maxRate);
+        return threshold;
+    }
+
+    synchronized boolean trySpend() {
+        if (budget < 1) return false;
+        budget -= 1;
+        return true;
+    }
+
+    synchronized void record(long latency) {
+        samples[next] = latency;
+        next = (next + 1) % WINDOW;
+        count++;
+        if (count >= MIN_SAMPLES && (count == MIN_SAMPLES || count % RECOMPUTE_EVERY == 0)) {
+            final long[] sorted = Arrays.copyOf(samples, Math.min(count, WINDOW));
+            Arrays.sort(sorted);
+            threshold = Math.max(MIN_DELAY, sorted[(int) Math.min(sorted.length - 1, Math.floor(percentile * sorted.length))]);
+        }
+    }
+}
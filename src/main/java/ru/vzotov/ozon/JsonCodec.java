@@ -0,0 +1,198 @@
+package ru.vzotov.ozon;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Mono;
+import reactor.netty.ByteBufMono;
+import ru.vzotov.ozon.model.OzonApi;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * JSON encoding and decoding of request and response bodies.
+ * <p>
+ * Responses are decoded straight from the aggregated {@link ByteBuf} with a cached {@link ObjectReader}, the body is
+ * converted to a string only when debug logging is enabled.
+ */
+final class JsonCodec {
+
+    private static final Logger log = LoggerFactory.getLogger(JsonCodec.class);
+
+    private static final boolean DEBUG = Boolean.getBoolean("ozon.debug");
+
+    private static final String F_LAYOUT = "layout";
+    private static final String F_WIDGET_STATES = "widgetStates";
+
+    private final ObjectMapper mapper;
+
+    private final ConcurrentMap<Class<?>, ObjectReader> readers = new ConcurrentHashMap<>();
+
+    JsonCodec(ObjectMapper mapper) {
+        this.mapper = requireNonNull(mapper);
+    }
+
+    static ObjectMapper defaultMapper() {
+        return new ObjectMapper()
+                .findAndRegisterModules()
+                .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+    }
+
+    ObjectMapper mapper() {
+        return mapper;
+    }
+
+    ObjectReader reader(Class<?> type) {
+        return readers.computeIfAbsent(type, mapper::readerFor);
+    }
+
+    /**
+     * @return true if the reader of the type is already created
+     */
+    boolean hasReader(Class<?> type) {
+        return readers.containsKey(type);
+    }
+
+    <T> Mono<String> toJson(T value) {
+        try {
+            return Mono.just(mapper.writeValueAsString(value));
+        } catch (JsonProcessingException e) {
+            return Mono.error(e);
+        }
+    }
+
+    <T> ByteBufMono toJsonBytes(T value) {
+        return ByteBufMono.fromString(toJson(value));
+    }
+
+    /**
+     * Decodes the response body. The buffer is released as soon as the value is read.
+     */
+    <T> Mono<T> fromJson(ByteBufMono body, Class<T> type) {
+        final ObjectReader reader = reader(type);
+        return body.retain().handle((buf, sink) -> {
+            try (InputStream in = new ByteBufInputStream(buf, true)) {
+                if (log.isDebugEnabled()) {
+                    log.debug("fromJson: {}", DEBUG ? prettyPrint(buf.toString(StandardCharsets.UTF_8)) : buf.toString(StandardCharsets.UTF_8));
+                }
+                sink.next(reader.readValue(in));
+            } catch (IOException e) {
+                sink.error(e);
+            }
+        });
+    }
+
+    /**
+     * Decodes a composer page keeping only the widget states referenced by the given components. States of other
+     * widgets, and states that are not strings, are skipped by the parser without being materialized.
+     */
+    Mono<OzonApi.ComposerResponse> fromComposerJson(ByteBufMono body, Set<String> components) {
+        if (DEBUG || components.isEmpty()) {
+            return fromJson(body, OzonApi.ComposerResponse.class);
+        }
+        return body.retain().handle((buf, sink) -> {
+            try {
+                if (log.isDebugEnabled()) {
+                    log.debug("fromJson: {}", buf.toString(StandardCharsets.UTF_8));
+                }
+                sink.next(readComposer(buf, components));
+            } catch (IOException e) {
+                sink.error(e);
+            } finally {
+                buf.release();
+            }
+        });
+    }
+
+    private OzonApi.ComposerResponse readComposer(ByteBuf buf, Set<String> components) throws IOException {
+        final ObjectNode root = mapper.createObjectNode();
+        boolean deferred = false;
+        try (JsonParser parser = mapper.createParser((InputStream) new ByteBufInputStream(buf.duplicate()))) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new JsonParseException(parser, "Composer response is not an object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String name = parser.currentName();
+                parser.nextToken();
+                if (!F_WIDGET_STATES.equals(name)) {
+                    root.set(name, parser.readValueAsTree());
+                } else if (root.has(F_LAYOUT)) {
+                    root.set(name, readWidgetStates(parser, stateIds(root, components)));
+                } else {
+                    deferred = true;
+                    parser.skipChildren();
+                }
+            }
+        }
+        if (deferred) {
+            try (JsonParser parser = mapper.createParser((InputStream) new ByteBufInputStream(buf.duplicate()))) {
+                parser.nextToken();
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    final String name = parser.currentName();
+                    parser.nextToken();
+                    if (F_WIDGET_STATES.equals(name)) {
+                        root.set(name, readWidgetStates(parser, stateIds(root, components)));
+                        break;
+                    }
+                    parser.skipChildren();
+                }
+            }
+        }
+        return mapper.treeToValue(root, OzonApi.ComposerResponse.class);
+    }
+
+    private static Set<String> stateIds(ObjectNode root, Set<String> components) {
+        final Set<String> result = new HashSet<>();
+        for (JsonNode component : root.path(F_LAYOUT)) {
+            if (components.contains(component.path("component").asText())) {
+                result.add(component.path("stateId").asText());
+            }
+        }
+        return result;
+    }
+
+    private ObjectNode readWidgetStates(JsonParser parser, Set<String> stateIds) throws IOException {
+        final ObjectNode states = mapper.createObjectNode();
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return states;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String stateId = parser.currentName();
+            parser.nextToken();
+            if (stateIds.contains(stateId) && parser.currentToken() == JsonToken.VALUE_STRING) {
+                states.put(stateId, parser.getText());
+            } else {
+                // states are JSON encoded into strings, other values are not states
+                parser.skipChildren();
+            }
+        }
+        return states;
+    }
+
+    <T> T fromJson(String json, Class<T> type) throws JsonProcessingException {
+        return reader(type).readValue(json);
+    }
+
+    String prettyPrint(String json) throws JsonProcessingException {
+        return mapper.writerWithDefaultPrettyPrinter().writeValueAsString(mapper.readValue(json, Object.class));
+    }
+}
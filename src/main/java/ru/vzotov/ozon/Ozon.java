@@ -1,21 +1,71 @@
 package ru.vzotov.ozon;
 
 import io.netty.buffer.ByteBuf;
+import reactor.core.Disposable;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 import ru.vzotov.ozon.model.OzonApi;
 
 import java.net.URI;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.Period;
 
-public interface Ozon {
+/**
+ * Client of an authorized Ozon account. Disposing it stops the background refresh of the finance session, resources
+ * shared through {@link OzonRuntime} are not released.
+ */
+public interface Ozon extends Disposable {
     Flux<OzonApi.ClientOperations> clientOperations(OzonApi.ClientOperationsRequest request);
 
+    /**
+     * Splits the requested date range into shards of the given length and fetches them concurrently.
+     * The shards are disjoint, so emitting them newest first, each as its pages arrive, keeps the operations newest
+     * first as Ozon lists them; later shards are buffered until the newer ones complete.
+     */
+    Flux<OzonApi.ClientOperation> clientOperations(OzonApi.ClientOperationsRequest request, Period shard, int parallelism);
+
     Flux<OzonApi.OrderList> orders(OzonApi.OrderListFilter filter);
 
+    /**
+     * Lists orders placed on or after the given date. Pagination stops at the first page with an older order.
+     */
+    Flux<OzonApi.OrderList> orders(OzonApi.OrderListFilter filter, LocalDate since);
+
     Flux<OzonApi.OrderDetailsPage> orderDetails(String orderId);
 
     Flux<OzonApi.OrderDetailsPosting> orderDetailsPosting(String uri);
 
+    /**
+     * Fetches details and postings of the order, with at most {@code concurrency} postings requested at once.
+     */
+    Mono<OzonApi.OrderGraph> orderGraph(OzonApi.Order order, int concurrency);
+
+    /**
+     * Streams complete order graphs in the order of the order list. At most {@code concurrency} orders are fetched at
+     * once, each fetching its postings one at a time, so at most {@code concurrency} requests are in flight.
+     */
+    Flux<OzonApi.OrderGraph> orderGraphs(OzonApi.OrderListFilter filter, int concurrency);
+
+    /**
+     * Streams order graphs of the orders placed on or after the given date, like
+     * {@link #orderGraphs(OzonApi.OrderListFilter, int)}. The order list stops at the cutoff as
+     * {@link #orders(OzonApi.OrderListFilter, LocalDate)} does.
+     */
+    Flux<OzonApi.OrderGraph> orderGraphs(OzonApi.OrderListFilter filter, LocalDate since, int concurrency);
+
     Flux<OzonApi.EChecks> eChecks();
 
+    /**
+     * Lists e-checks issued on or after the given date. Pagination stops at the first page with an older check.
+     */
+    Flux<OzonApi.EChecks> eChecks(LocalDate since);
+
     Flux<ByteBuf> download(URI uri);
+
+    /**
+     * Downloads to a {@code .part} file next to the target, and atomically moves it to the target when complete.
+     * A {@code .part} file left by an earlier attempt is resumed with a range request.
+     */
+    Mono<OzonApi.DownloadResult> downloadTo(URI uri, Path target);
 }
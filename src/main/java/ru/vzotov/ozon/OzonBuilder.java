@@ -1,43 +1,58 @@
 package ru.vzotov.ozon;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.compression.Brotli;
 import io.netty.handler.codec.http.HttpHeaderNames;
 import io.netty.handler.codec.http.HttpHeaderValues;
 import io.netty.handler.codec.http.HttpHeaders;
 import io.netty.handler.codec.http.HttpResponseStatus;
 import io.netty.handler.codec.http.QueryStringDecoder;
 import io.netty.handler.codec.http.QueryStringEncoder;
-import io.netty.handler.codec.http.cookie.ClientCookieDecoder;
 import io.netty.handler.codec.http.cookie.Cookie;
 import io.netty.handler.codec.http.cookie.DefaultCookie;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 import reactor.netty.ByteBufMono;
+import reactor.netty.http.HttpProtocol;
 import reactor.netty.http.client.HttpClient;
 import reactor.netty.http.client.HttpClientResponse;
+import reactor.netty.resources.ConnectionProvider;
 import ru.vzotov.ozon.model.OzonApi;
 import ru.vzotov.ozon.security.SecurityApi;
 
-import java.io.IOException;
 import java.net.URI;
+import java.nio.file.Path;
 import java.time.Duration;
-import java.util.LinkedHashSet;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.Period;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.Set;
-import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.util.function.UnaryOperator;
 
 import static java.util.Objects.requireNonNull;
 import static ru.vzotov.ozon.model.OzonApi.ComposerResponse.C_CHEQUES;
+import static ru.vzotov.ozon.model.OzonApi.ComposerResponse.C_ORDER_ACTIONS;
 import static ru.vzotov.ozon.model.OzonApi.ComposerResponse.C_ORDER_LIST_APP;
+import static ru.vzotov.ozon.model.OzonApi.ComposerResponse.C_ORDER_TOTAL;
+import static ru.vzotov.ozon.model.OzonApi.ComposerResponse.C_SELLER_PRODUCTS;
+import static ru.vzotov.ozon.model.OzonApi.ComposerResponse.C_SHIPMENT_WIDGET;
 
 public class OzonBuilder {
 
@@ -48,41 +63,164 @@ public class OzonBuilder {
 
     private static final boolean DEBUG = Boolean.getBoolean("ozon.debug");
 
-    private HttpClient httpClient;
+    private static final String OZON_HOST = URI.create(OZON_API).getHost();
+    private static final String FINANCE_HOST = URI.create(FINANCE_API).getHost();
+
+    private UnaryOperator<HttpClient> httpClientOperator = UnaryOperator.identity();
+
+    private ConnectionProvider connectionProvider;
+
+    private boolean http2;
+
+    private boolean compression;
+
+    private OzonRuntime runtime;
+
+    private OzonScheduler scheduler;
+
+    private OzonPageCache pageCache;
+
+    private CheckpointStore checkpoints;
 
     private ObjectMapper objectMapper;
 
-    public OzonBuilder() {
-        AtomicReference<List<Cookie>> newCookies = new AtomicReference<>();
-        httpClient = HttpClient.create()
-                .baseUrl(OZON_API)
-                .doOnRedirect((res, conn) -> {
-                    log.debug("doOnRedirect {}", res);
-                    final List<String> cookies = res.responseHeaders().getAll(HttpHeaderNames.SET_COOKIE);
-                    if (cookies != null) {
-                        newCookies.set(
-                                cookies.stream().map(ClientCookieDecoder.LAX::decode).toList()
-                        );
-                    }
+    private int pagePrefetch = 1;
+
+    private Duration tokenRefreshAhead = Duration.ofMinutes(1);
+
+    private final Map<String, RequestPolicy.RateLimit> rateLimits = new HashMap<>();
+
+    private RequestPolicy.Backoff backoff = new RequestPolicy.Backoff(3, Duration.ofMillis(500), Duration.ofSeconds(30));
+
+    private RequestPolicy.Breaker breaker;
+
+    private double hedgePercentile;
+
+    private double hedgeMaxRate;
+
+    private final Map<Endpoint, Duration> timeouts = new EnumMap<>(Map.of(
+            Endpoint.PAGE, Duration.ofSeconds(30),
+            Endpoint.CLIENT_OPERATIONS, Duration.ofSeconds(30),
+            Endpoint.AUTH_LOGIN, Duration.ofSeconds(30),
+            Endpoint.DOWNLOAD, Duration.ofSeconds(60)
+    ));
+
+    private Duration streamTimeout;
+
+    /**
+     * Requests having their own deadline.
+     */
+    public enum Endpoint {
+        /**
+         * Composer page
+         */
+        PAGE,
+        /**
+         * Page of client operations
+         */
+        CLIENT_OPERATIONS,
+        /**
+         * Login to the finance API
+         */
+        AUTH_LOGIN,
+        /**
+         * Document download, its deadline limits the time between reads only
+         */
+        DOWNLOAD
+    }
 
-                })
-                .followRedirect(true, (headers, request) -> {
-                    log.debug("followRedirect {}; headers {}", request, headers);
-                    final List<Cookie> cookies = newCookies.get();
-                    if (cookies != null) {
-                        for (Cookie cookie : cookies) {
-                            request.addCookie(cookie);
-                        }
-                    }
-                    request.headers(headers);
-                });
-        objectMapper = new ObjectMapper()
-                .findAndRegisterModules()
-                .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+    public OzonBuilder() {
+        objectMapper = JsonCodec.defaultMapper();
     }
 
     public OzonBuilder httpClient(UnaryOperator<HttpClient> httpClientOperator) {
-        this.httpClient = httpClientOperator.apply(this.httpClient);
+        requireNonNull(httpClientOperator);
+        final UnaryOperator<HttpClient> previous = this.httpClientOperator;
+        this.httpClientOperator = client -> httpClientOperator.apply(previous.apply(client));
+        return this;
+    }
+
+    /**
+     * Sets the connection pool used by the client. The provider is owned by the caller and must be disposed by it.
+     *
+     * @see #connectionPool(String, int, int, Duration, Duration)
+     */
+    public OzonBuilder connectionProvider(ConnectionProvider connectionProvider) {
+        this.connectionProvider = requireNonNull(connectionProvider);
+        return this;
+    }
+
+    /**
+     * Enables HTTP/2, negotiated with ALPN. Servers not supporting it are still accessed with HTTP/1.1.
+     */
+    public OzonBuilder http2(boolean http2) {
+        this.http2 = http2;
+        return this;
+    }
+
+    /**
+     * Enables compressed responses. Gzip and deflate are always accepted, brotli is accepted when its native library
+     * is available at runtime. Responses are decompressed in the channel pipeline before they are decoded.
+     */
+    public OzonBuilder compression(boolean compression) {
+        this.compression = compression;
+        return this;
+    }
+
+    /**
+     * Creates a named connection pool suitable for {@link #connectionProvider(ConnectionProvider)}.
+     *
+     * @param maxConnections         maximum number of connections per host
+     * @param pendingAcquireMaxCount maximum number of requests waiting for a connection, -1 for no limit
+     * @param maxIdleTime            time after which an idle connection is closed
+     * @param maxLifeTime            time after which a connection is closed once released
+     */
+    public static ConnectionProvider connectionPool(String name, int maxConnections, int pendingAcquireMaxCount,
+                                                    Duration maxIdleTime, Duration maxLifeTime) {
+        if (maxConnections <= 0) throw new IllegalArgumentException("maxConnections must be positive: " + maxConnections);
+        return ConnectionProvider.builder(name)
+                .maxConnections(maxConnections)
+                .pendingAcquireMaxCount(pendingAcquireMaxCount)
+                .maxIdleTime(maxIdleTime)
+                .maxLifeTime(maxLifeTime)
+                .evictInBackground(maxIdleTime)
+                .build();
+    }
+
+    /**
+     * Makes the instance share the event loops, the connection pool and the JSON codec of the runtime. An explicit
+     * {@link #connectionProvider(ConnectionProvider)} still takes precedence, {@link #objectMapper(UnaryOperator)} is
+     * ignored.
+     */
+    public OzonBuilder runtime(OzonRuntime runtime) {
+        this.runtime = requireNonNull(runtime);
+        return this;
+    }
+
+    /**
+     * Submits every request of the instance, including logins, to the scheduler shared with other accounts.
+     */
+    public OzonBuilder scheduler(OzonScheduler scheduler) {
+        this.scheduler = requireNonNull(scheduler);
+        return this;
+    }
+
+    /**
+     * Serves composer pages from the cache, which may be shared with other instances.
+     */
+    public OzonBuilder pageCache(OzonPageCache pageCache) {
+        this.pageCache = requireNonNull(pageCache);
+        return this;
+    }
+
+    /**
+     * Makes client operations, orders and e-checks streams resumable: the position of every page is saved to the store
+     * before the page is emitted, and a stream started again with the same request continues from the last saved
+     * page. That page is emitted again, so pages are delivered at least once. Only a completed stream removes its
+     * checkpoint: a stream that fails or is cancelled, e.g. on shutdown, continues from its last page the next time.
+     */
+    public OzonBuilder checkpoints(CheckpointStore checkpoints) {
+        this.checkpoints = requireNonNull(checkpoints);
         return this;
     }
 
@@ -92,199 +230,527 @@ public class OzonBuilder {
         return this;
     }
 
-    private HttpClient createHttpClient() {
-        return httpClient
-                .baseUrl(FINANCE_API)
-                .headers(headers -> headers
-                        .add(HttpHeaderNames.CONTENT_TYPE, HttpHeaderValues.APPLICATION_JSON)
-                        .add(HttpHeaderNames.ACCEPT, HttpHeaderValues.APPLICATION_JSON)
-                );
+    /**
+     * Sets the number of pages requested ahead of downstream demand while paginating.
+     */
+    public OzonBuilder pagePrefetch(int pagePrefetch) {
+        if (pagePrefetch < 0) throw new IllegalArgumentException("pagePrefetch must not be negative: " + pagePrefetch);
+        this.pagePrefetch = pagePrefetch;
+        return this;
     }
 
-    private static <T> Mono<String> toJson(ObjectMapper objectMapper, T value) {
-        try {
-            return Mono.just(objectMapper.writeValueAsString(value));
-        } catch (JsonProcessingException e) {
-            return Mono.error(e);
-        }
+    /**
+     * Sets how long before the finance session expires it is refreshed in background.
+     */
+    public OzonBuilder tokenRefreshAhead(Duration tokenRefreshAhead) {
+        if (tokenRefreshAhead.isNegative()) throw new IllegalArgumentException("tokenRefreshAhead must not be negative");
+        this.tokenRefreshAhead = tokenRefreshAhead;
+        return this;
     }
 
-    private static <T> ByteBufMono toJsonBytes(ObjectMapper objectMapper, T value) {
-        return ByteBufMono.fromString(toJson(objectMapper, value));
+    /**
+     * Limits the rate of requests sent to the host, e.g. {@code api.ozon.ru} or {@code finance.ozon.ru}.
+     *
+     * @param burst number of requests allowed at once after a pause
+     */
+    public OzonBuilder rateLimit(String host, double permitsPerSecond, int burst) {
+        if (!(permitsPerSecond > 0)) throw new IllegalArgumentException("permitsPerSecond must be positive: " + permitsPerSecond);
+        if (burst <= 0) throw new IllegalArgumentException("burst must be positive: " + burst);
+        rateLimits.put(requireNonNull(host), new RequestPolicy.RateLimit(permitsPerSecond, burst));
+        return this;
     }
 
-    protected static <T> Mono<T> fromJson(ObjectMapper objectMapper, ByteBufMono body, Class<T> reference) {
-        return body.asString().flatMap(in -> {
-            try {
-                log.debug("fromJson: {}", DEBUG ? prettyPrint(in) : in);
-                return Mono.just(objectMapper.readValue(in, reference));
-            } catch (IOException e) {
-                return Mono.error(e);
-            }
-        });
+    /**
+     * Sets how requests failed with a transient error (429, 5xx, I/O error) are retried. Backoff grows exponentially
+     * from {@code minBackoff} to {@code maxBackoff} with random jitter, a longer {@code Retry-After} is honored.
+     *
+     * @param maxRetries number of retries, 0 disables retries
+     */
+    public OzonBuilder retry(int maxRetries, Duration minBackoff, Duration maxBackoff) {
+        if (maxRetries < 0) throw new IllegalArgumentException("maxRetries must not be negative: " + maxRetries);
+        if (minBackoff.isNegative() || maxBackoff.compareTo(minBackoff) < 0)
+            throw new IllegalArgumentException("Invalid backoff " + minBackoff + ".." + maxBackoff);
+        this.backoff = new RequestPolicy.Backoff(maxRetries, minBackoff, maxBackoff);
+        return this;
+    }
+
+    /**
+     * Enables circuit breaking per host: after {@code failureThreshold} consecutive transient failures requests to the
+     * host fail immediately for {@code openDuration}.
+     */
+    public OzonBuilder circuitBreaker(int failureThreshold, Duration openDuration) {
+        if (failureThreshold <= 0) throw new IllegalArgumentException("failureThreshold must be positive: " + failureThreshold);
+        if (openDuration.isNegative()) throw new IllegalArgumentException("openDuration must not be negative");
+        this.breaker = new RequestPolicy.Breaker(failureThreshold, openDuration);
+        return this;
+    }
+
+    /**
+     * Enables hedging of composer page requests. A page not received within the given percentile of recent page
+     * latencies is requested again, and the first response is used.
+     *
+     * @param percentile latency percentile, e.g. 0.95
+     * @param maxRate    maximum share of requests that are hedged, e.g. 0.05
+     */
+    public OzonBuilder hedging(double percentile, double maxRate) {
+        if (!(percentile > 0 && percentile < 1)) throw new IllegalArgumentException("percentile must be in (0, 1): " + percentile);
+        if (!(maxRate > 0 && maxRate <= 1)) throw new IllegalArgumentException("maxRate must be in (0, 1]: " + maxRate);
+        this.hedgePercentile = percentile;
+        this.hedgeMaxRate = maxRate;
+        return this;
     }
 
-    private static String prettyPrint(String json) throws JsonProcessingException {
-        final ObjectMapper mapper = new ObjectMapper();
-        return mapper.writerWithDefaultPrettyPrinter().writeValueAsString(mapper.readValue(json, Object.class));
+    /**
+     * Sets the deadline of a single request to the endpoint, null removes it. A request exceeding it is cancelled and
+     * fails with a timeout, which is retried like other transient errors.
+     */
+    public OzonBuilder timeout(Endpoint endpoint, Duration timeout) {
+        requireNonNull(endpoint);
+        if (timeout == null) {
+            timeouts.remove(endpoint);
+        } else if (timeout.isNegative() || timeout.isZero()) {
+            throw new IllegalArgumentException("timeout must be positive: " + timeout);
+        } else {
+            timeouts.put(endpoint, timeout);
+        }
+        return this;
+    }
+
+    /**
+     * Sets the deadline of a whole paginated stream, retries included.
+     */
+    public OzonBuilder streamTimeout(Duration streamTimeout) {
+        if (streamTimeout.isNegative() || streamTimeout.isZero())
+            throw new IllegalArgumentException("streamTimeout must be positive: " + streamTimeout);
+        this.streamTimeout = streamTimeout;
+        return this;
+    }
+
+    HttpClient createHttpClient() {
+        final ConnectionProvider provider = connectionProvider != null ? connectionProvider :
+                runtime != null ? runtime.connectionProvider() : null;
+        HttpClient client = provider == null ? HttpClient.create() : HttpClient.create(provider);
+        if (runtime != null) {
+            client = client.runOn(runtime.loopResources());
+        }
+        client = RedirectCookies.followRedirects(client.baseUrl(OZON_API));
+        if (http2) {
+            client = client.protocol(HttpProtocol.H2, HttpProtocol.HTTP11);
+        }
+        if (compression) {
+            client = client.compress(true);
+            if (Brotli.isAvailable()) {
+                client = client.headers(headers -> headers.set(HttpHeaderNames.ACCEPT_ENCODING, "br, gzip, deflate"));
+            }
+        }
+        return httpClientOperator.apply(client)
+                .baseUrl(FINANCE_API)
+                .headers(headers -> headers
+                        .add(HttpHeaderNames.CONTENT_TYPE, HttpHeaderValues.APPLICATION_JSON)
+                        .add(HttpHeaderNames.ACCEPT, HttpHeaderValues.APPLICATION_JSON)
+                );
     }
 
-    private Mono<OzonApi.AuthResponse> handleAuthResponse(HttpClientResponse res, ByteBufMono body) {
-        return fromJson(objectMapper, body, OzonApi.AuthResponseV2.class)
+    /**
+     * @param refreshToken current refresh token, used when the response does not rotate it
+     */
+    private static Mono<OzonApi.AuthResponse> handleAuthResponse(JsonCodec codec, HttpClientResponse res, ByteBufMono body, String refreshToken) {
+        return codec.fromJson(body, OzonApi.AuthResponseV2.class)
                 .flatMap(v2 -> {
                     if (v2.ok() != null && !v2.ok()) {
                         return Mono.empty();
                     } else {
                         final Cookie accessCookie = res.cookies().get(SecurityApi.FinanceAccessToken.COOKIE).stream().findFirst().orElse(null);
-                        final Cookie refreshCookie = res.cookies().get(SecurityApi.FinanceRefreshToken.COOKIE).stream().findFirst().orElse(null);
-                        return accessCookie == null || refreshCookie == null ? Mono.empty() : Mono.just(new OzonApi.AuthResponse(
+                        final String refreshValue = res.cookies().get(SecurityApi.FinanceRefreshToken.COOKIE).stream().findFirst()
+                                .map(Cookie::value).orElse(refreshToken);
+                        return accessCookie == null || refreshValue == null ? Mono.empty() : Mono.just(new OzonApi.AuthResponse(
                                 accessCookie.value(),
-                                refreshCookie.value(),
+                                refreshValue,
                                 accessCookie.maxAge()
                         ));
                     }
                 });
     }
 
+    /**
+     * The authentication is subscribed again for every login, including the background refreshes of the finance
+     * session, so it must be replayable without user interaction. The pin code is requested until a login obtains it,
+     * and then reused by the refreshes.
+     */
     public Ozon authorize(Mono<SecurityApi.OzonAuthentication> auth, Mono<SecurityApi.PinCode> pinCode) {
+        final Mono<SecurityApi.PinCode> pin = pinCode.cache(value -> Duration.ofMillis(Long.MAX_VALUE),
+                e -> Duration.ZERO, () -> Duration.ZERO);
         final HttpClient client = createHttpClient();
-        final Mono<SecurityApi.OzonAuthorization> authorization = auth.zipWith(pinCode)
-                .flatMap(authenticated -> {
+        final JsonCodec codec = runtime == null ? new JsonCodec(objectMapper) : runtime.codec();
+        final Deadlines deadlines = new Deadlines(timeouts, streamTimeout);
+        final AuthorizationCache authorization = new AuthorizationCache(
+                current -> auth.zipWith(pin).flatMap(authenticated -> scheduled(scheduler, authenticated.getT1(),
+                        login(client, codec, deadlines, authenticated.getT1(), authenticated.getT2(), current))),
+                tokenRefreshAhead);
+        return new AuthorizedInstance(client, OZON_API, authorization, codec, pagePrefetch, scheduler,
+                new RequestPolicy(rateLimits, backoff, breaker),
+                hedgeMaxRate > 0 ? new Hedging(hedgePercentile, hedgeMaxRate) : null, deadlines, pageCache, checkpoints);
+    }
 
-                    return client
-                            .post()
-                            .uri("/auth_login")
-                            .send((req, out) -> {
-                                authenticated.getT1().cookies()
-                                        .forEach((name, value) -> req.addCookie(new DefaultCookie(name, value)));
-                                return out.send(toJsonBytes(objectMapper, Map.of("pincode", authenticated.getT2().value())));
-                            })
-                            .responseSingle(this::handleAuthResponse)
-                            .map(response -> new SecurityApi.OzonAuthorization(
-                                    authenticated.getT1(),
-                                    new SecurityApi.FinanceAccessToken(response.authToken()),
-                                    new SecurityApi.FinanceRefreshToken(response.refreshToken())
-                            ));
+    private static <T> Mono<T> scheduled(OzonScheduler scheduler, SecurityApi.OzonAuthentication authentication, Mono<T> request) {
+        return scheduler == null ? request : scheduler.schedule(authentication.userId().value(), request);
+    }
+
+    private static <T> Flux<T> scheduled(OzonScheduler scheduler, SecurityApi.OzonAuthentication authentication, Flux<T> request) {
+        return scheduler == null ? request : scheduler.schedule(authentication.userId().value(), request);
+    }
+
+    /**
+     * Logs in to the finance API. When the current session is given, its finance tokens are sent along so that the
+     * session is refreshed with the refresh token.
+     */
+    private static Mono<AuthorizationCache.Session> login(HttpClient client, JsonCodec codec, Deadlines deadlines,
+                                                          SecurityApi.OzonAuthentication authentication,
+                                                          SecurityApi.PinCode pinCode,
+                                                          AuthorizationCache.Session current) {
+        final Map<String, String> cookies = current == null ?
+                authentication.cookies() : current.authorization().cookies();
+        final String refreshToken = current == null ? null : current.authorization().financeRefreshToken().value();
+        return deadlines.apply(Endpoint.AUTH_LOGIN, deadlines.client(Endpoint.AUTH_LOGIN, client)
+                .post()
+                .uri("/auth_login")
+                .send((req, out) -> {
+                    cookies.forEach((name, value) -> req.addCookie(new DefaultCookie(name, value)));
+                    return out.send(codec.toJsonBytes(Map.of("pincode", pinCode.value())));
                 })
-                .cache(s -> Duration.ofMillis(Long.MAX_VALUE), e -> Duration.ZERO, () -> Duration.ZERO);
-        return new AuthorizedInstance(client, authorization, objectMapper);
+                .responseSingle((res, body) -> handleAuthResponse(codec, res, body, refreshToken)))
+                .contextWrite(RedirectCookies::scope)
+                .map(response -> new AuthorizationCache.Session(
+                        new SecurityApi.OzonAuthorization(
+                                authentication,
+                                new SecurityApi.FinanceAccessToken(response.authToken()),
+                                new SecurityApi.FinanceRefreshToken(response.refreshToken())
+                        ),
+                        response.exp() != null && response.exp() > 0 ?
+                                Instant.now().plusSeconds(response.exp()) : Instant.MAX
+                ));
     }
 
     static class AuthorizedInstance implements Ozon {
         private final HttpClient httpClient;
-        private final ObjectMapper mapper;
-        private final Mono<SecurityApi.OzonAuthorization> authorization;
-
-        AuthorizedInstance(HttpClient httpClient, Mono<SecurityApi.OzonAuthorization> authorization, ObjectMapper mapper) {
+        private final String ozonApi;
+        private final JsonCodec codec;
+        private final AuthorizationCache sessions;
+        private final Mono<AuthorizationCache.Session> authorization;
+        private final int prefetch;
+        private final OzonScheduler scheduler;
+        private final RequestPolicy policy;
+        private final Hedging hedging;
+        private final Deadlines deadlines;
+        private final OzonPageCache pageCache;
+        private final CheckpointStore checkpoints;
+        private final SingleFlight<PageKey, OzonApi.ComposerResponse> pages = new SingleFlight<>();
+
+        /**
+         * @param ozonApi base URL of the composer API, {@link OzonBuilder#OZON_API}
+         */
+        AuthorizedInstance(HttpClient httpClient, String ozonApi, AuthorizationCache sessions, JsonCodec codec, int prefetch,
+                           OzonScheduler scheduler, RequestPolicy policy, Hedging hedging, Deadlines deadlines,
+                           OzonPageCache pageCache, CheckpointStore checkpoints) {
             this.httpClient = requireNonNull(httpClient);
-            this.authorization = requireNonNull(authorization);
-            this.mapper = requireNonNull(mapper);
+            this.ozonApi = requireNonNull(ozonApi);
+            this.sessions = requireNonNull(sessions);
+            this.authorization = sessions.session();
+            this.codec = requireNonNull(codec);
+            this.prefetch = prefetch;
+            this.scheduler = scheduler;
+            this.policy = requireNonNull(policy);
+            this.hedging = hedging;
+            this.deadlines = requireNonNull(deadlines);
+            this.pageCache = pageCache;
+            this.checkpoints = checkpoints;
+        }
+
+        JsonCodec codec() {
+            return codec;
+        }
+
+        @Override
+        public void dispose() {
+            sessions.dispose();
+        }
+
+        @Override
+        public boolean isDisposed() {
+            return sessions.isDisposed();
+        }
+
+        private <T> Mono<T> exchange(String host, AuthorizationCache.Session session, Mono<T> request) {
+            return policy.apply(host, scheduled(scheduler, session.authorization().authentication(), request));
+        }
+
+        private <T> Mono<T> hedgedExchange(String host, AuthorizationCache.Session session, Mono<T> request) {
+            return policy.apply(host, request, hedging,
+                    attempt -> scheduled(scheduler, session.authorization().authentication(), attempt));
+        }
+
+        private <T> Flux<T> exchange(String host, AuthorizationCache.Session session, Flux<T> request) {
+            return policy.apply(host, scheduled(scheduler, session.authorization().authentication(), request));
         }
 
         private Mono<OzonApi.ClientOperations> clientOperationsPage(OzonApi.ClientOperationsRequest request) {
-            return authorization.single().flatMap(authorization ->
-                    httpClient.post().uri("/clientOperations")
+            return authorization.single().flatMap(session -> exchange(FINANCE_HOST, session,
+                    deadlines.apply(Endpoint.CLIENT_OPERATIONS, deadlines.client(Endpoint.CLIENT_OPERATIONS, httpClient)
+                            .post().uri("/clientOperations")
                             .send((req, out) -> {
-                                authorization.cookies()
-                                        .forEach((name, value) -> req.addCookie(new DefaultCookie(name, value)));
-                                return out.send(toJsonBytes(mapper, request));
+                                req.addHeader(HttpHeaderNames.COOKIE, session.financeCookieHeader());
+                                return out.send(codec.toJsonBytes(request));
                             })
-                            .responseSingle((res, body) -> fromJson(mapper, body, OzonApi.ClientOperations.class))
-            );
+                            .responseSingle((res, body) -> HttpResponseStatus.OK.equals(res.status()) ?
+                                    codec.fromJson(body, OzonApi.ClientOperations.class) :
+                                    Mono.error(OzonHttpException.of(res))))
+                            .contextWrite(RedirectCookies::scope)
+            ));
         }
 
         @Override
         public Flux<OzonApi.ClientOperations> clientOperations(OzonApi.ClientOperationsRequest request) {
-            return clientOperationsPage(request)
-                    .expandDeep(page -> page.hasNextPage() ?
-                            clientOperationsPage(
-                                    new OzonApi.ClientOperationsRequest(
-                                            page.cursors(),
-                                            request.filter(),
-                                            request.page(),
-                                            request.perPage()
-                                    )
-                            ) :
-                            Mono.empty());
+            final OzonApi.ClientOperationsRequest stream = withCursors(request, new OzonApi.Cursors());
+            return resumable("clientOperations", stream, checkpoint -> {
+                final OzonApi.Cursors cursors;
+                try {
+                    cursors = checkpoint == null ? request.cursors() : codec.fromJson(checkpoint, OzonApi.Cursors.class);
+                } catch (JsonProcessingException e) {
+                    return Flux.error(e);
+                }
+                return deadlines.stream(Pager.pages(positionedPage(withCursors(request, cursors)),
+                        page -> Boolean.TRUE.equals(page.page().hasNextPage()) ?
+                                positionedPage(withCursors(request, page.page().cursors())) :
+                                Mono.empty(),
+                        prefetch));
+            });
+        }
+
+        private static OzonApi.ClientOperationsRequest withCursors(OzonApi.ClientOperationsRequest request, OzonApi.Cursors cursors) {
+            return new OzonApi.ClientOperationsRequest(cursors, request.filter(), request.page(), request.perPage());
+        }
+
+        /**
+         * Fetches the page, positioned at the cursors it was requested with.
+         */
+        private Mono<Positioned<OzonApi.ClientOperations>> positionedPage(OzonApi.ClientOperationsRequest request) {
+            return clientOperationsPage(request).handle((page, sink) -> {
+                try {
+                    sink.next(new Positioned<>(codec.mapper().writeValueAsString(request.cursors()), page));
+                } catch (JsonProcessingException e) {
+                    sink.error(e);
+                }
+            });
+        }
+
+        /**
+         * Resumes the stream from its checkpoint, and saves the position of every page before emitting it. The
+         * checkpoint is cleared only when the stream completes, it is kept when the stream fails or is cancelled.
+         *
+         * @param operation name of the operation, which with the account and the request identifies the stream
+         * @param pages     creates the stream starting at the checkpoint, or from the beginning if it is null
+         */
+        private <P> Flux<P> resumable(String operation, Object request, Function<String, Flux<Positioned<P>>> pages) {
+            if (checkpoints == null) return pages.apply(null).map(Positioned::page);
+            return authorization.single().flatMapMany(session -> {
+                final String stream;
+                try {
+                    stream = operation + ":" + session.authorization().authentication().userId().value() + ":" +
+                            codec.mapper().writeValueAsString(request);
+                } catch (JsonProcessingException e) {
+                    return Flux.error(e);
+                }
+                return Flux.usingWhen(Mono.just(stream),
+                        key -> checkpoints.load(key)
+                                .map(Optional::of)
+                                .defaultIfEmpty(Optional.empty())
+                                .flatMapMany(checkpoint -> pages.apply(checkpoint.orElse(null)))
+                                .concatMap(page -> checkpoints.save(key, page.position()).thenReturn(page.page()), 1),
+                        checkpoints::clear,
+                        (key, error) -> Mono.empty(),
+                        key -> Mono.empty());
+            });
+        }
+
+        @Override
+        public Flux<OzonApi.ClientOperation> clientOperations(OzonApi.ClientOperationsRequest request, Period shard, int parallelism) {
+            if (parallelism < 1) throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+            final OzonApi.ClientOperationsFilter filter = requireNonNull(request.filter());
+            final List<OzonApi.DateRange> shards = new ArrayList<>(filter.date().split(shard));
+            Collections.reverse(shards);
+            return Flux.fromIterable(shards)
+                    .flatMapSequential(range -> clientOperations(new OzonApi.ClientOperationsRequest(
+                                    new OzonApi.Cursors(),
+                                    new OzonApi.ClientOperationsFilter(filter.categories(), range, filter.effect()),
+                                    request.page(),
+                                    request.perPage()))
+                                    .concatMapIterable(page -> page.items() == null ? List.of() : page.items()),
+                            parallelism);
         }
 
         @Override
         public Flux<OzonApi.OrderList> orders(OzonApi.OrderListFilter filter) {
-            return page("/my/orderlist")
-                    .expandDeep(composerResponse -> page(composerResponse.nextPage()))
-                    .flatMap(page -> {
-                        try {
-                            final OzonApi.OrderList item = mapToComponentState(page, C_ORDER_LIST_APP, OzonApi.OrderList.class).stream().findFirst().orElse(null);
-                            return Mono.justOrEmpty(item);
-                        } catch (JsonProcessingException e) {
-                            return Mono.error(e);
-                        }
-                    });
+            return orders(filter, null);
+        }
+
+        @Override
+        public Flux<OzonApi.OrderList> orders(OzonApi.OrderListFilter filter, LocalDate since) {
+            final String url = filter == null || filter.sort() == OzonApi.OrderListFilter.ALL.sort() ?
+                    "/my/orderlist" : "/my/orderlist?sort=%d".formatted(filter.sort());
+            return resumableComposerPages("orders", url, since, Set.of(C_ORDER_LIST_APP),
+                    page -> mapToComponentState(page, C_ORDER_LIST_APP, OzonApi.OrderList.class).stream().findFirst().orElse(null),
+                    list -> olderThan(list, since))
+                    .map(list -> since == null ? list : new OzonApi.OrderList(itemsSince(list, since)));
         }
 
         @Override
         public Flux<OzonApi.OrderDetailsPage> orderDetails(String orderId) {
-            return page("/my/orderDetails/?order=%s".formatted(orderId))
-                    .expandDeep(composerResponse -> page(composerResponse.nextPage()))
-                    .flatMap(page -> {
-                        try {
-                            final OzonApi.OrderTotal total = mapToComponentState(page, "orderTotal", OzonApi.OrderTotal.class).stream().findFirst().orElse(null);
-                            final OzonApi.OrderActions actions = mapToComponentState(page, "orderActions", OzonApi.OrderActions.class).stream().findFirst().orElse(null);
-                            final Set<OzonApi.ShipmentWidget> shipmentWidget = mapToComponentState(page, "shipmentWidget", OzonApi.ShipmentWidget.class);
-                            return Mono.justOrEmpty(new OzonApi.OrderDetailsPage(total, actions, shipmentWidget));
-                        } catch (JsonProcessingException e) {
-                            return Mono.error(e);
-                        }
+            return composerPages("/my/orderDetails/?order=%s".formatted(orderId), Set.of(C_ORDER_TOTAL, C_ORDER_ACTIONS, C_SHIPMENT_WIDGET),
+                    page -> {
+                        final OzonApi.OrderTotal total = mapToComponentState(page, C_ORDER_TOTAL, OzonApi.OrderTotal.class).stream().findFirst().orElse(null);
+                        final OzonApi.OrderActions actions = mapToComponentState(page, C_ORDER_ACTIONS, OzonApi.OrderActions.class).stream().findFirst().orElse(null);
+                        final Set<OzonApi.ShipmentWidget> shipmentWidget = mapToComponentState(page, C_SHIPMENT_WIDGET, OzonApi.ShipmentWidget.class);
+                        return new OzonApi.OrderDetailsPage(total, actions, shipmentWidget);
                     });
         }
 
         @Override
         public Flux<OzonApi.OrderDetailsPosting> orderDetailsPosting(String uri) {
             if (!uri.startsWith("ozon://my/orderDetailsPosting")) throw new IllegalArgumentException();
-            return page(uri.substring("ozon:/".length()))
-                    .expandDeep(composerResponse -> page(composerResponse.nextPage()))
-                    .flatMap(page -> {
-                        try {
-                            final Set<OzonApi.SellerProducts> sellerProducts = mapToComponentState(page, "sellerProducts", OzonApi.SellerProducts.class);
-                            log.debug("SellerProducts: {}", sellerProducts);
-                            return Mono.justOrEmpty(sellerProducts.stream()
-                                    .findFirst()
-                                    .map(OzonApi.OrderDetailsPosting::new));
-                        } catch (JsonProcessingException e) {
-                            return Mono.error(e);
-                        }
+            return composerPages(uri.substring("ozon:/".length()), Set.of(C_SELLER_PRODUCTS),
+                    page -> {
+                        final Set<OzonApi.SellerProducts> sellerProducts = mapToComponentState(page, C_SELLER_PRODUCTS, OzonApi.SellerProducts.class);
+                        log.debug("SellerProducts: {}", sellerProducts);
+                        return sellerProducts.stream()
+                                .findFirst()
+                                .map(OzonApi.OrderDetailsPosting::new)
+                                .orElse(null);
                     });
         }
 
-        private Mono<OzonApi.ComposerResponse> page(String pageUrl) {
+        @Override
+        public Mono<OzonApi.OrderGraph> orderGraph(OzonApi.Order order, int concurrency) {
+            final String number = order.number();
+            if (number == null) {
+                return Mono.error(new IllegalArgumentException("Order has no number: " + order));
+            }
+            return orderDetails(number)
+                    .collectList()
+                    .flatMap(details -> Flux.fromIterable(details)
+                            .concatMapIterable(OzonApi.OrderDetailsPage::findPostings)
+                            .concatMapIterable(postings -> postings.data() == null || postings.data().postings() == null ?
+                                    List.of() : postings.data().postings())
+                            .mapNotNull(posting -> posting.action() == null ? null : posting.action().link())
+                            .filter(link -> link.startsWith("ozon://my/orderDetailsPosting"))
+                            .distinct()
+                            .flatMapSequential(this::orderDetailsPosting, concurrency, 1)
+                            .collectList()
+                            .map(postings -> new OzonApi.OrderGraph(order, details, postings)));
+        }
+
+        @Override
+        public Flux<OzonApi.OrderGraph> orderGraphs(OzonApi.OrderListFilter filter, int concurrency) {
+            return orderGraphs(filter, null, concurrency);
+        }
+
+        @Override
+        public Flux<OzonApi.OrderGraph> orderGraphs(OzonApi.OrderListFilter filter, LocalDate since, int concurrency) {
+            return orders(filter, since)
+                    .concatMapIterable(list -> list.items() == null ? List.of() : list.items())
+                    .flatMapSequential(order -> orderGraph(order, 1), concurrency, 1);
+        }
+
+        private <T> Flux<T> composerPages(String pageUrl, Set<String> components, PageMapper<T> mapper) {
+            return composerPages(pageUrl, components, mapper, value -> false);
+        }
+
+        /**
+         * Paginates composer pages mapping each of them to a value.
+         *
+         * @param lastPage tells whether no more pages are needed after the page with the given value
+         */
+        private <T> Flux<T> composerPages(String pageUrl, Set<String> components, PageMapper<T> mapper, Predicate<? super T> lastPage) {
+            return pagesFrom(pageUrl, components, mapper, lastPage).mapNotNull(ComposerPage::value);
+        }
+
+        /**
+         * Paginates composer pages like {@link #composerPages(String, Set, PageMapper, Predicate)}, saving the URL of
+         * every page to the checkpoint store.
+         *
+         * @param since cutoff of the stream, which with the URL identifies it
+         */
+        private <T> Flux<T> resumableComposerPages(String operation, String pageUrl, LocalDate since, Set<String> components,
+                                                   PageMapper<T> mapper, Predicate<? super T> lastPage) {
+            final Object request = since == null ? pageUrl : List.of(pageUrl, since.toString());
+            return resumable(operation, request, checkpoint ->
+                    pagesFrom(checkpoint == null ? pageUrl : checkpoint, components, mapper, lastPage)
+                            .map(page -> new Positioned<>(page.url(), page)))
+                    .mapNotNull(ComposerPage::value);
+        }
+
+        private <T> Flux<ComposerPage<T>> pagesFrom(String pageUrl, Set<String> components, PageMapper<T> mapper, Predicate<? super T> lastPage) {
+            return deadlines.stream(Pager.pages(composerPage(pageUrl, components, mapper),
+                    page -> page.value() != null && lastPage.test(page.value()) ?
+                            Mono.empty() :
+                            composerPage(page.response().nextPage(), components, mapper),
+                    prefetch));
+        }
+
+        private <T> Mono<ComposerPage<T>> composerPage(String pageUrl, Set<String> components, PageMapper<T> mapper) {
+            return page(pageUrl, components).handle((response, sink) -> {
+                try {
+                    sink.next(new ComposerPage<>(pageUrl, response, mapper.map(response)));
+                } catch (JsonProcessingException e) {
+                    sink.error(e);
+                }
+            });
+        }
+
+        private Mono<OzonApi.ComposerResponse> page(String pageUrl, Set<String> components) {
             if (pageUrl == null) return Mono.empty();
-            final QueryStringEncoder uri = new QueryStringEncoder(OZON_API + "composer-api.bx/page/json/v2");
+            final QueryStringEncoder uri = new QueryStringEncoder(ozonApi + "composer-api.bx/page/json/v2");
             uri.addParam("url", pageUrl);
-            return authorization.single().flatMap(authorization -> httpClient
-                    .doOnRequest((req, conn) -> {
-                        authorization.authentication().cookies()
-                                .forEach((name, value) -> req.addCookie(new DefaultCookie(name, value)));
-                    })
+            return authorization.single().flatMap(session -> {
+                final String account = session.authorization().authentication().userId().value();
+                if (pageCache == null) {
+                    return pages.execute(new PageKey(account, pageUrl, components),
+                            () -> fetchPage(session, uri.toString(), pageUrl, components));
+                }
+                final OzonApi.ComposerResponse cached = pageCache.get(account, pageUrl, components);
+                return cached != null ? Mono.just(cached) : pages.execute(new PageKey(account, pageUrl, components),
+                        () -> fetchPage(session, uri.toString(), pageUrl, components)
+                                .doOnNext(response -> pageCache.put(account, pageUrl, components, response)));
+            });
+        }
+
+        private Mono<OzonApi.ComposerResponse> fetchPage(AuthorizationCache.Session session, String uri,
+                                                         String pageUrl, Set<String> components) {
+            return hedgedExchange(OZON_HOST, session, deadlines.apply(Endpoint.PAGE,
+                    deadlines.client(Endpoint.PAGE, httpClient)
+                    .doOnRequest((req, conn) -> req.addHeader(HttpHeaderNames.COOKIE, session.ozonCookieHeader()))
                     .headers(this::defaultHeaders)
                     .get()
-                    .uri(uri.toString())
+                    .uri(uri)
                     .responseSingle((res, body) -> {
+                        if (!HttpResponseStatus.OK.equals(res.status())) {
+                            return Mono.error(OzonHttpException.of(res));
+                        }
                         log.debug("parse json page response: {}", pageUrl);
-                        return fromJson(mapper, body, OzonApi.ComposerResponse.class);
-                    })
+                        return codec.fromComposerJson(body, components);
+                    }))
+                    .contextWrite(RedirectCookies::scope))
                     .map(response -> {
                         if (DEBUG) {
                             for (Map.Entry<String, String> entry : response.widgetStates().entrySet()) {
                                 try {
-                                    log.debug("State {}: {}", entry.getKey(), prettyPrint(entry.getValue()));
+                                    log.debug("State {}: {}", entry.getKey(), codec.prettyPrint(entry.getValue()));
                                 } catch (JsonProcessingException e) {
                                     log.error("Parse error", e);
                                 }
                             }
                         }
                         return response;
-                    })
-            );
+                    });
         }
 
         private void defaultHeaders(HttpHeaders headers) {
@@ -294,21 +760,71 @@ public class OzonBuilder {
 
         @Override
         public Flux<OzonApi.EChecks> eChecks() {
-            return page("/my/e-check?archive=1")
-                    .expandDeep(composerResponse -> page(composerResponse.nextPage()))
-                    .flatMap(page -> {
-                        try {
-                            final OzonApi.EChecks item = mapToComponentState(page, C_CHEQUES, OzonApi.EChecks.class)
-                                    .stream().findFirst().orElse(null);
-                            return Mono.justOrEmpty(item);
-                        } catch (JsonProcessingException e) {
-                            return Mono.error(e);
-                        }
-                    });
+            return eChecks(null);
+        }
+
+        @Override
+        public Flux<OzonApi.EChecks> eChecks(LocalDate since) {
+            return resumableComposerPages("eChecks", "/my/e-check?archive=1", since, Set.of(C_CHEQUES),
+                    page -> mapToComponentState(page, C_CHEQUES, OzonApi.EChecks.class).stream().findFirst().orElse(null),
+                    checks -> olderThan(checks, since))
+                    .map(checks -> since == null ? checks : new OzonApi.EChecks(checks.title(), itemsSince(checks, since)));
+        }
+
+        /**
+         * @return true if the collection has an item dated before the cutoff. Items without a date are not considered.
+         */
+        private static boolean olderThan(OzonApi.OzonCollection<?> collection, LocalDate since) {
+            if (since == null || collection.items() == null) return false;
+            return collection.items().stream()
+                    .map(OzonApi.OzonRecord::date)
+                    .anyMatch(date -> !LocalDate.MIN.equals(date) && date.isBefore(since));
+        }
+
+        private static <T extends OzonApi.OzonRecord> List<T> itemsSince(OzonApi.OzonCollection<T> collection, LocalDate since) {
+            if (collection.items() == null) return null;
+            return collection.items().stream()
+                    .filter(item -> LocalDate.MIN.equals(item.date()) || !item.date().isBefore(since))
+                    .toList();
         }
 
         @Override
         public Flux<ByteBuf> download(URI uri) {
+            final String url = pdfUrl(uri);
+            return authorization.single().flatMapMany(session -> exchange(hostOf(url), session,
+                    downloadRequest(session, url, () -> null)
+                            .response((res, body) -> {
+                                if (!HttpResponseStatus.OK.equals(res.status())) {
+                                    return Mono.error(OzonHttpException.of(res));
+                                } else {
+                                    return body;
+                                }
+                            })
+                            .contextWrite(RedirectCookies::scope))
+            );
+        }
+
+        @Override
+        public Mono<OzonApi.DownloadResult> downloadTo(URI uri, Path target) {
+            final String url = pdfUrl(uri);
+            requireNonNull(target);
+            return Mono.usingWhen(
+                    Mono.fromCallable(() -> FileDownload.open(target)).subscribeOn(Schedulers.boundedElastic()),
+                    download -> authorization.single()
+                            .flatMap(session -> exchange(hostOf(url), session,
+                                    downloadRequest(session, url, download::range)
+                                            .response(download::receive)
+                                            .contextWrite(RedirectCookies::scope)
+                                            .then()))
+                            .then(Mono.fromCallable(download::complete).subscribeOn(Schedulers.boundedElastic())),
+                    download -> Mono.fromCallable(() -> {
+                        download.close();
+                        return download;
+                    }).subscribeOn(Schedulers.boundedElastic()).then()
+            );
+        }
+
+        private static String pdfUrl(URI uri) {
             final String scheme = uri.getScheme();
             if (!"ozon".equalsIgnoreCase(scheme)) {
                 throw new IllegalArgumentException("Scheme " + scheme + " is not supported");
@@ -318,16 +834,21 @@ public class OzonBuilder {
                 throw new IllegalArgumentException("Host " + host + " is not supported");
             }
             final QueryStringDecoder decoder = new QueryStringDecoder(uri);
-            final String url = requireNonNull(decoder.parameters().get("url")).stream().findFirst()
+            return requireNonNull(decoder.parameters().get("url")).stream().findFirst()
                     .orElseThrow(NullPointerException::new);
-            return authorization.single().flatMapMany(authorization -> httpClient
+        }
+
+        /**
+         * @param range supplies the {@code Range} header of every attempt, or null
+         */
+        private HttpClient.ResponseReceiver<?> downloadRequest(AuthorizationCache.Session session, String url, Supplier<String> range) {
+            return deadlines.client(Endpoint.DOWNLOAD, httpClient)
                     .headers(headers -> headers
                             .remove(HttpHeaderNames.CONTENT_TYPE)
                             .remove(HttpHeaderNames.ACCEPT)
                             .remove(HttpHeaderNames.USER_AGENT)
                             .add(HttpHeaderNames.USER_AGENT, "ozonapp_android/16.16.0+2366")
                             .add(HttpHeaderNames.ACCEPT, "application/json; charset=utf-8")
-                            //.add(HttpHeaderNames.ACCEPT_ENCODING, "br,gzip")
                             .add("no-authorization", "false")
                             .add("x-o3-app-name", "ozonapp_android")
                             .add("x-o3-app-version", "16.16.0(2366)")
@@ -335,32 +856,42 @@ public class OzonBuilder {
                             .add("x-o3-sample-trace", "false")
                     )
                     .doOnRequest((req, conn) -> {
-                        authorization.authentication().cookies()
-                                .forEach((name, value) -> req.addCookie(new DefaultCookie(name, value)));
+                        req.addHeader(HttpHeaderNames.COOKIE, session.ozonCookieHeader());
+                        final String value = range.get();
+                        if (value != null) req.header(HttpHeaderNames.RANGE, value);
                     })
                     .get()
-                    .uri(url)
-                    .response((res, body) -> {
-                        if (!HttpResponseStatus.OK.equals(res.status())) {
-                            return Mono.error(new IllegalStateException(res.status().toString()));
-                        } else {
-                            return body;
-                        }
-                    })
-            );
+                    .uri(url);
         }
 
-        private <T> Set<T> mapToComponentState(OzonApi.ComposerResponse in, String component, Class<T> resultClass) throws JsonProcessingException {
-            final Set<String> state = in.widgetState(component);
-            if (state == null) {
-                throw new IllegalStateException();
-            } else {
-                final Set<T> result = new LinkedHashSet<>(state.size());
-                for (String s : state) {
-                    result.add(mapper.readValue(s, resultClass));
-                }
-                return result;
+        private static String hostOf(String url) {
+            try {
+                final String host = URI.create(url).getHost();
+                return host == null ? OZON_HOST : host;
+            } catch (IllegalArgumentException e) {
+                return OZON_HOST;
             }
         }
+
+        @FunctionalInterface
+        private interface PageMapper<T> {
+            T map(OzonApi.ComposerResponse page) throws JsonProcessingException;
+        }
+
+        /**
+         * Identifies concurrent requests of the same page, which share one upstream call.
+         */
+        private record PageKey(String account, String url, Set<String> components) {
+        }
+
+        private record Positioned<P>(String position, P page) {
+        }
+
+        private record ComposerPage<T>(String url, OzonApi.ComposerResponse response, T value) {
+        }
+
+        private <T> Set<T> mapToComponentState(OzonApi.ComposerResponse in, String component, Class<T> resultClass) throws JsonProcessingException {
+            return in.widgetState(component, resultClass, codec::fromJson);
+        }
     }
 }
@@ -0,0 +1,77 @@
+package ru.vzotov.ozon;
+
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import reactor.netty.http.client.HttpClientResponse;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Optional;
+import java.util.Set;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Unexpected response status of the Ozon API.
+ */
+public class OzonHttpException extends IllegalStateException {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Set<Integer> RETRYABLE = Set.of(408, 429, 500, 502, 503, 504);
+
+    private final HttpResponseStatus status;
+
+    private final Duration retryAfter;
+
+    /**
+     * @param retryAfter delay requested by the {@code Retry-After} header, or null
+     */
+    public OzonHttpException(HttpResponseStatus status, Duration retryAfter) {
+        super(status.toString());
+        this.status = requireNonNull(status);
+        this.retryAfter = retryAfter;
+    }
+
+    static OzonHttpException of(HttpClientResponse res) {
+        return new OzonHttpException(res.status(),
+                parseRetryAfter(res.responseHeaders().get(HttpHeaderNames.RETRY_AFTER), Instant.now()));
+    }
+
+    /**
+     * Parses the {@code Retry-After} header given either in seconds or as an HTTP date.
+     *
+     * @return the delay, or null when the value is missing or malformed
+     */
+    static Duration parseRetryAfter(String value, Instant now) {
+        if (value == null || value.isBlank()) return null;
+        try {
+            return Duration.ofSeconds(Math.max(0, Long.parseLong(value.trim())));
+        } catch (NumberFormatException e) {
+            try {
+                final Instant at = ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+                return at.isAfter(now) ? Duration.between(now, at) : Duration.ZERO;
+            } catch (DateTimeParseException ex) {
+                return null;
+            }
+        }
+    }
+
+    public HttpResponseStatus status() {
+        return status;
+    }
+
+    public Optional<Duration> retryAfter() {
+        return Optional.ofNullable(retryAfter);
+    }
+
+    /**
+     * @return true if the status is transient and the same request may succeed later
+     */
+    public boolean isRetryable() {
+        return RETRYABLE.contains(status.code());
+    }
+}
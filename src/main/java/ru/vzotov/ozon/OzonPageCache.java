@@ -0,0 +1,281 @@
+package ru.vzotov.ozon;
+
+import ru.vzotov.ozon.model.OzonApi;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory cache of composer pages, shared by the instances built with {@link OzonBuilder#pageCache(OzonPageCache)}.
+ * <p>
+ * Only pages whose URL matches a configured pattern are cached, for the time-to-live of the first matching pattern.
+ * The cache is bounded by the estimated size of the pages in memory. Once it is full, least recently used pages are
+ * evicted, but only in favor of a page requested more often than them, so one-off pages do not flush the frequently
+ * used ones.
+ */
+public final class OzonPageCache {
+
+    private static final long ENTRY_OVERHEAD = 256;
+
+    private static final long COMPONENT_SIZE = 128;
+
+    private final long maxBytes;
+
+    private final List<Ttl> ttls;
+
+    private final FrequencySketch frequency = new FrequencySketch();
+
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long bytes;
+
+    private long hits;
+
+    private long misses;
+
+    private long evictions;
+
+    private long rejections;
+
+    private OzonPageCache(long maxBytes, List<Ttl> ttls) {
+        this.maxBytes = maxBytes;
+        this.ttls = List.copyOf(ttls);
+    }
+
+    public static Builder builder(long maxBytes) {
+        return new Builder(maxBytes);
+    }
+
+    synchronized OzonApi.ComposerResponse get(String account, String url, Set<String> components) {
+        final Key key = new Key(account, url, components);
+        frequency.increment(key);
+        final Entry entry = entries.get(key);
+        if (entry != null && entry.expiresAt - System.nanoTime() > 0) {
+            hits++;
+            return entry.response;
+        }
+        if (entry != null) {
+            remove(key, entry);
+        }
+        misses++;
+        return null;
+    }
+
+    synchronized void put(String account, String url, Set<String> components, OzonApi.ComposerResponse response) {
+        final Duration ttl = ttl(url);
+        if (ttl == null) return;
+        final Key key = new Key(account, url, components);
+        final long weight = weight(response);
+        if (weight > maxBytes) {
+            rejections++;
+            return;
+        }
+        final Entry previous = entries.get(key);
+        if (previous != null) {
+            remove(key, previous);
+        }
+        if (!makeRoom(key, weight)) {
+            rejections++;
+            return;
+        }
+        entries.put(key, new Entry(response, weight, System.nanoTime() + ttl.toNanos()));
+        bytes += weight;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    public synchronized Stats stats() {
+        return new Stats(hits, misses, evictions, rejections, entries.size(), bytes);
+    }
+
+    /**
+     * Evicts expired pages, then least recently used pages requested less often than the candidate.
+     *
+     * @return false if the candidate is not admitted
+     */
+    private boolean makeRoom(Key candidate, long weight) {
+        if (bytes + weight <= maxBytes) return true;
+        final long now = System.nanoTime();
+        entries.entrySet().removeIf(e -> {
+            if (e.getValue().expiresAt - now > 0) return false;
+            bytes -= e.getValue().weight;
+            evictions++;
+            return true;
+        });
+        if (bytes + weight <= maxBytes) return true;
+
+        final int candidateFrequency = frequency.frequency(candidate);
+        final List<Key> victims = new ArrayList<>();
+        long freed = 0;
+        for (Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator(); it.hasNext() && bytes - freed + weight > maxBytes; ) {
+            final Map.Entry<Key, Entry> victim = it.next();
+            if (frequency.frequency(victim.getKey()) >= candidateFrequency) return false;
+            victims.add(victim.getKey());
+            freed += victim.getValue().weight;
+        }
+        for (Key victim : victims) {
+            bytes -= entries.remove(victim).weight;
+            evictions++;
+        }
+        return true;
+    }
+
+    private void remove(Key key, Entry entry) {
+        entries.remove(key);
+        bytes -= entry.weight;
+    }
+
+    private Duration ttl(String url) {
+        for (Ttl ttl : ttls) {
+            if (ttl.pattern().matcher(url).matches()) return ttl.ttl();
+        }
+        return null;
+    }
+
+    /**
+     * Estimates the memory used by the page, strings are counted as UTF-16.
+     * <p>
+     * States are decoded lazily and cached on the page after it is admitted, so the decoded form of every state
+     * referenced by the layout is reserved up front, estimated as large as its JSON.
+     */
+    static long weight(OzonApi.ComposerResponse response) {
+        long weight = ENTRY_OVERHEAD;
+        if (response.layout() != null) weight += COMPONENT_SIZE * response.layout().size();
+        weight += weight(response.widgetStates());
+        weight += decodedWeight(response);
+        weight += weight(response.trackingPayloads());
+        weight += 2L * (length(response.nextPage()) + length(response.layoutTrackingInfo()) + length(response.shared())
+                + length(response.pageToken()) + length(response.userToken()) + length(response.requestID()));
+        return weight;
+    }
+
+    private static long decodedWeight(OzonApi.ComposerResponse response) {
+        if (response.layout() == null || response.widgetStates() == null) return 0;
+        long weight = 0;
+        for (OzonApi.ComposerResponse.Component component : response.layout()) {
+            if (component == null || component.stateId() == null) continue;
+            weight += 2L * length(response.widgetStates().get(component.stateId()));
+        }
+        return weight;
+    }
+
+    private static long weight(Map<String, String> strings) {
+        if (strings == null) return 0;
+        long weight = 0;
+        for (Map.Entry<String, String> e : strings.entrySet()) {
+            weight += 2L * (length(e.getKey()) + length(e.getValue()));
+        }
+        return weight;
+    }
+
+    private static int length(String s) {
+        return s == null ? 0 : s.length();
+    }
+
+    /**
+     * @param hits       number of requests served from the cache
+     * @param misses     number of requests not found in the cache
+     * @param evictions  number of pages evicted because they expired or to make room
+     * @param rejections number of pages not admitted to the cache
+     * @param entries    number of cached pages
+     * @param bytes      estimated memory used by the cached pages
+     */
+    public record Stats(long hits, long misses, long evictions, long rejections, int entries, long bytes) {
+
+        public double hitRate() {
+            final long requests = hits + misses;
+            return requests == 0 ? 0 : (double) hits / requests;
+        }
+    }
+
+    public static final class Builder {
+
+        private final long maxBytes;
+
+        private final List<Ttl> ttls = new ArrayList<>();
+
+        private Builder(long maxBytes) {
+            if (maxBytes <= 0) throw new IllegalArgumentException("maxBytes must be positive: " + maxBytes);
+            this.maxBytes = maxBytes;
+        }
+
+        /**
+         * Caches pages whose URL, e.g. {@code /my/e-check?archive=1}, matches the regular expression. Patterns are
+         * checked in the order they are added.
+         */
+        public Builder ttl(String urlPattern, Duration ttl) {
+            if (ttl.isNegative() || ttl.isZero()) throw new IllegalArgumentException("ttl must be positive: " + ttl);
+            ttls.add(new Ttl(Pattern.compile(urlPattern), ttl));
+            return this;
+        }
+
+        public OzonPageCache build() {
+            return new OzonPageCache(maxBytes, ttls);
+        }
+    }
+
+    private record Ttl(Pattern pattern, Duration ttl) {
+    }
+
+    private record Key(String account, String url, Set<String> components) {
+    }
+
+    private record Entry(OzonApi.ComposerResponse response, long weight, long expiresAt) {
+    }
+
+    /**
+     * Count-min sketch of recent request frequencies. Counters are halved periodically, so that old popularity fades.
+     */
+    private static final class FrequencySketch {
+
+        private static final int DEPTH = 4;
+
+        private static final int WIDTH = 1 << 12;
+
+        private static final int RESET_AFTER = 10 * WIDTH;
+
+        private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+        private final int[][] counters = new int[DEPTH][WIDTH];
+
+        private int increments;
+
+        void increment(Object key) {
+            final int hash = Objects.hashCode(key);
+            for (int i = 0; i < DEPTH; i++) {
+                counters[i][index(hash, i)]++;
+            }
+            if (++increments >= RESET_AFTER) {
+                for (int[] row : counters) {
+                    for (int j = 0; j < WIDTH; j++) row[j] >>>= 1;
+                }
+                increments /= 2;
+            }
+        }
+
+        int frequency(Object key) {
+            final int hash = Objects.hashCode(key);
+            int min = Integer.MAX_VALUE;
+            for (int i = 0; i < DEPTH; i++) {
+                min = Math.min(min, counters[i][index(hash, i)]);
+            }
+            return min;
+        }
+
+        private static int index(int hash, int row) {
+            int h = hash * SEEDS[row];
+            h ^= h >>> 16;
+            return h & (WIDTH - 1);
+        }
+    }
+}
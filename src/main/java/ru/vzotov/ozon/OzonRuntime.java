@@ -0,0 +1,136 @@
+package ru.vzotov.ozon;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.netty.resources.ConnectionProvider;
+import reactor.netty.resources.LoopResources;
+import ru.vzotov.ozon.model.OzonApi;
+
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Resources shared by many {@link Ozon} instances: event loops, connection pool and JSON codec.
+ * <p>
+ * Readers of all response types are created up front, so that authorized instances do not pay for Jackson
+ * introspection. The runtime owns its resources, they are released by {@link #dispose()}.
+ *
+ * @see OzonBuilder#runtime(OzonRuntime)
+ */
+public final class OzonRuntime implements Disposable {
+
+    static final List<Class<?>> RESPONSE_TYPES = List.of(
+            OzonApi.AuthResponseV2.class,
+            OzonApi.ClientOperations.class,
+            OzonApi.ComposerResponse.class,
+            OzonApi.OrderList.class,
+            OzonApi.OrderTotal.class,
+            OzonApi.OrderActions.class,
+            OzonApi.ShipmentWidget.class,
+            OzonApi.SellerProducts.class,
+            OzonApi.EChecks.class
+    );
+
+    private final LoopResources loopResources;
+
+    private final ConnectionProvider connectionProvider;
+
+    private final JsonCodec codec;
+
+    private OzonRuntime(LoopResources loopResources, ConnectionProvider connectionProvider, ObjectMapper objectMapper) {
+        this.loopResources = requireNonNull(loopResources);
+        this.connectionProvider = requireNonNull(connectionProvider);
+        this.codec = new JsonCodec(objectMapper);
+        RESPONSE_TYPES.forEach(codec::reader);
+    }
+
+    public static OzonRuntime create() {
+        return builder().build();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    LoopResources loopResources() {
+        return loopResources;
+    }
+
+    ConnectionProvider connectionProvider() {
+        return connectionProvider;
+    }
+
+    JsonCodec codec() {
+        return codec;
+    }
+
+    @Override
+    public void dispose() {
+        connectionProvider.dispose();
+        loopResources.dispose();
+    }
+
+    @Override
+    public boolean isDisposed() {
+        return connectionProvider.isDisposed() && loopResources.isDisposed();
+    }
+
+    public Mono<Void> disposeLater() {
+        return connectionProvider.disposeLater().then(loopResources.disposeLater());
+    }
+
+    public static final class Builder {
+
+        private String name = "ozon";
+
+        private int workerCount = LoopResources.DEFAULT_IO_WORKER_COUNT;
+
+        private ConnectionProvider connectionProvider;
+
+        private UnaryOperator<ObjectMapper> objectMapperOperator = UnaryOperator.identity();
+
+        private Builder() {
+        }
+
+        /**
+         * Sets the name of the event loop threads and of the default connection pool.
+         */
+        public Builder name(String name) {
+            this.name = requireNonNull(name);
+            return this;
+        }
+
+        public Builder workerCount(int workerCount) {
+            if (workerCount <= 0) throw new IllegalArgumentException("workerCount must be positive: " + workerCount);
+            this.workerCount = workerCount;
+            return this;
+        }
+
+        /**
+         * Sets the connection pool. It becomes owned by the runtime and is disposed with it.
+         *
+         * @see OzonBuilder#connectionPool(String, int, int, java.time.Duration, java.time.Duration)
+         */
+        public Builder connectionProvider(ConnectionProvider connectionProvider) {
+            this.connectionProvider = requireNonNull(connectionProvider);
+            return this;
+        }
+
+        public Builder objectMapper(UnaryOperator<ObjectMapper> objectMapperOperator) {
+            requireNonNull(objectMapperOperator);
+            final UnaryOperator<ObjectMapper> previous = this.objectMapperOperator;
+            this.objectMapperOperator = mapper -> objectMapperOperator.apply(previous.apply(mapper));
+            return this;
+        }
+
+        public OzonRuntime build() {
+            return new OzonRuntime(
+                    LoopResources.create(name, workerCount, true),
+                    connectionProvider == null ? ConnectionProvider.create(name) : connectionProvider,
+                    objectMapperOperator.apply(JsonCodec.defaultMapper()));
+        }
+    }
+}
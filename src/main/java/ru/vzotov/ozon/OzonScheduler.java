@@ -0,0 +1,231 @@
+package ru.vzotov.ozon;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Coordinates requests of many accounts sharing one upstream.
+ * <p>
+ * At most {@code maxInFlight} requests run at once, and at most {@code maxInFlightPerAccount} of them belong to the same
+ * account. Waiting requests are granted round-robin across accounts, so an account syncing a long history does not
+ * starve the others. Requests of an account are granted in submission order.
+ * <p>
+ * Instances built with {@link OzonBuilder#scheduler(OzonScheduler)} submit every HTTP exchange here, with the Ozon user
+ * id as the account, so any sync job (client operations, orders, e-checks, downloads) is scheduled request by request.
+ */
+public final class OzonScheduler {
+
+    private final int maxInFlight;
+
+    private final int maxInFlightPerAccount;
+
+    private final Map<String, Account> accounts = new HashMap<>();
+
+    /**
+     * Accounts having waiting requests and spare per-account budget, in the order they are served.
+     */
+    private final Deque<Account> ready = new ArrayDeque<>();
+
+    private int inFlight;
+
+    private int queued;
+
+    private long granted;
+
+    private long totalWaitNanos;
+
+    private long maxWaitNanos;
+
+    public OzonScheduler(int maxInFlight, int maxInFlightPerAccount) {
+        if (maxInFlight <= 0) throw new IllegalArgumentException("maxInFlight must be positive: " + maxInFlight);
+        if (maxInFlightPerAccount <= 0)
+            throw new IllegalArgumentException("maxInFlightPerAccount must be positive: " + maxInFlightPerAccount);
+        this.maxInFlight = maxInFlight;
+        this.maxInFlightPerAccount = maxInFlightPerAccount;
+    }
+
+    /**
+     * Subscribes to the request once it is granted. The grant is returned when the request terminates or is cancelled.
+     */
+    public <T> Mono<T> schedule(String account, Mono<T> request) {
+        requireNonNull(request);
+        return Mono.usingWhen(acquire(account), permit -> request,
+                Permit::release, (permit, e) -> permit.release(), Permit::release);
+    }
+
+    public <T> Flux<T> schedule(String account, Flux<T> request) {
+        requireNonNull(request);
+        return Flux.usingWhen(acquire(account), permit -> request,
+                Permit::release, (permit, e) -> permit.release(), Permit::release);
+    }
+
+    public synchronized Stats stats() {
+        final Map<String, Integer> queuedByAccount = new LinkedHashMap<>();
+        accounts.forEach((name, account) -> {
+            if (!account.waiting.isEmpty()) queuedByAccount.put(name, account.waiting.size());
+        });
+        return new Stats(inFlight, queued, Map.copyOf(queuedByAccount), granted,
+                Duration.ofNanos(granted == 0 ? 0 : totalWaitNanos / granted),
+                Duration.ofNanos(maxWaitNanos));
+    }
+
+    private Mono<Permit> acquire(String account) {
+        requireNonNull(account);
+        return Mono.create(sink -> {
+            final Waiting waiting = new Waiting(account, sink, System.nanoTime());
+            sink.onCancel(() -> cancel(waiting));
+            enqueue(waiting);
+            drain();
+        });
+    }
+
+    private synchronized void enqueue(Waiting waiting) {
+        final Account account = accounts.computeIfAbsent(waiting.account, Account::new);
+        account.waiting.add(waiting);
+        queued++;
+        markReady(account);
+    }
+
+    private void cancel(Waiting waiting) {
+        if (waiting.state.compareAndSet(Waiting.WAITING, Waiting.CANCELLED)) {
+            synchronized (this) {
+                final Account account = accounts.get(waiting.account);
+                if (account != null && account.waiting.remove(waiting)) {
+                    queued--;
+                    removeIfIdle(account);
+                }
+            }
+        } else if (waiting.permit != null) {
+            // granted concurrently with cancellation, the permit may never reach the subscriber
+            waiting.permit.releaseNow();
+        }
+    }
+
+    private void drain() {
+        final List<Waiting> grants = new ArrayList<>();
+        synchronized (this) {
+            while (inFlight < maxInFlight && !ready.isEmpty()) {
+                final Account account = ready.poll();
+                account.ready = false;
+                final Waiting waiting = account.waiting.poll();
+                if (waiting == null) continue; // the last waiting request was cancelled
+                queued--;
+                inFlight++;
+                account.inFlight++;
+                granted++;
+                final long wait = System.nanoTime() - waiting.since;
+                totalWaitNanos += wait;
+                maxWaitNanos = Math.max(maxWaitNanos, wait);
+                waiting.permit = new Permit(account);
+                grants.add(waiting);
+                markReady(account);
+            }
+        }
+        for (Waiting waiting : grants) {
+            if (waiting.state.compareAndSet(Waiting.WAITING, Waiting.GRANTED)) {
+                waiting.sink.success(waiting.permit);
+            } else {
+                waiting.permit.releaseNow();
+            }
+        }
+    }
+
+    private void release(Account account) {
+        synchronized (this) {
+            inFlight--;
+            account.inFlight--;
+            markReady(account);
+            removeIfIdle(account);
+        }
+        drain();
+    }
+
+    private void markReady(Account account) {
+        if (!account.ready && !account.waiting.isEmpty() && account.inFlight < maxInFlightPerAccount) {
+            account.ready = true;
+            ready.add(account);
+        }
+    }
+
+    private void removeIfIdle(Account account) {
+        if (account.inFlight == 0 && account.waiting.isEmpty()) {
+            ready.remove(account);
+            account.ready = false;
+            accounts.remove(account.name);
+        }
+    }
+
+    /**
+     * @param inFlight        number of running requests
+     * @param queued          number of waiting requests
+     * @param queuedByAccount number of waiting requests of each account having any
+     * @param granted         total number of granted requests
+     * @param averageWait     average time a granted request waited in queue
+     * @param maxWait         longest time a granted request waited in queue
+     */
+    public record Stats(int inFlight, int queued, Map<String, Integer> queuedByAccount, long granted,
+                        Duration averageWait, Duration maxWait) {
+    }
+
+    private static final class Account {
+        private final String name;
+        private final Deque<Waiting> waiting = new ArrayDeque<>();
+        private int inFlight;
+        private boolean ready;
+
+        private Account(String name) {
+            this.name = name;
+        }
+    }
+
+    private static final class Waiting {
+        private static final int WAITING = 0;
+        private static final int GRANTED = 1;
+        private static final int CANCELLED = 2;
+
+        private final String account;
+        private final MonoSink<Permit> sink;
+        private final long since;
+        private final AtomicInteger state = new AtomicInteger(WAITING);
+        private volatile Permit permit;
+
+        private Waiting(String account, MonoSink<Permit> sink, long since) {
+            this.account = account;
+            this.sink = sink;
+            this.since = since;
+        }
+    }
+
+    private final class Permit {
+        private final Account account;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(Account account) {
+            this.account = account;
+        }
+
+        private Mono<Void> release() {
+            return Mono.fromRunnable(this::releaseNow);
+        }
+
+        private void releaseNow() {
+            if (released.compareAndSet(false, true)) {
+                OzonScheduler.this.release(account);
+            }
+        }
+    }
+}
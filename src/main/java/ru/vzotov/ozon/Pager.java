@@ -0,0 +1,135 @@
+package ru.vzotov.ozon;
+
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.BaseSubscriber;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Sequential pagination with read-ahead.
+ * <p>
+ * The request for the next page is sent as soon as the previous page is received, before it is emitted downstream.
+ * At most one request is in flight, and no more than {@code prefetch} pages are buffered besides the one being
+ * emitted. With zero prefetch the next page is requested only after the previous one is delivered.
+ */
+final class Pager<P> {
+
+    private final FluxSink<P> sink;
+    private final Function<? super P, ? extends Mono<P>> next;
+    private final int prefetch;
+
+    private final Queue<P> ready = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger wip = new AtomicInteger();
+    private final Disposable.Swap inFlight = Disposables.swap();
+
+    private volatile Mono<P> pending;
+    private volatile boolean fetching;
+    private volatile boolean done;
+    private volatile Throwable error;
+
+    private Pager(FluxSink<P> sink, Mono<P> first, Function<? super P, ? extends Mono<P>> next, int prefetch) {
+        this.sink = sink;
+        this.next = next;
+        this.prefetch = prefetch;
+        this.pending = first;
+        sink.onRequest(n -> drain());
+        sink.onDispose(inFlight);
+    }
+
+    /**
+     * @param first    request for the first page
+     * @param next     request for the page following the given one, or an empty {@link Mono} after the last page
+     * @param prefetch number of pages to fetch ahead of downstream demand
+     */
+    static <P> Flux<P> pages(Mono<P> first, Function<? super P, ? extends Mono<P>> next, int prefetch) {
+        requireNonNull(first);
+        requireNonNull(next);
+        if (prefetch < 0) throw new IllegalArgumentException("prefetch must not be negative: " + prefetch);
+        return Flux.create(sink -> new Pager<>(sink, first, next, prefetch).drain());
+    }
+
+    private void drain() {
+        if (wip.getAndIncrement() != 0) return;
+        int missed = 1;
+        for (; ; ) {
+            for (; ; ) {
+                if (sink.isCancelled()) {
+                    ready.clear();
+                    return;
+                }
+
+                final long requested = sink.requestedFromDownstream();
+                while (!fetching && !done && ready.size() < prefetch + (requested > 0 ? 1 : 0)) {
+                    final Mono<P> request = pending;
+                    pending = null;
+                    fetching = true;
+                    fetch(request);
+                }
+
+                if (requested == 0) break;
+                final P page = ready.poll();
+                if (page == null) break;
+                sink.next(page);
+            }
+
+            if (done && !fetching && ready.isEmpty()) {
+                final Throwable e = error;
+                if (e != null) {
+                    sink.error(e);
+                } else {
+                    sink.complete();
+                }
+                return;
+            }
+
+            missed = wip.addAndGet(-missed);
+            if (missed == 0) break;
+        }
+    }
+
+    private void fetch(Mono<P> request) {
+        final PageSubscriber subscriber = new PageSubscriber();
+        inFlight.replace(subscriber);
+        request.subscribe(subscriber);
+    }
+
+    private final class PageSubscriber extends BaseSubscriber<P> {
+        private boolean received;
+
+        @Override
+        protected void hookOnNext(P page) {
+            received = true;
+            try {
+                pending = requireNonNull(next.apply(page));
+            } catch (Throwable e) {
+                error = e;
+                done = true;
+            }
+            ready.offer(page);
+        }
+
+        @Override
+        protected void hookOnError(Throwable e) {
+            error = e;
+            done = true;
+            fetching = false;
+            drain();
+        }
+
+        @Override
+        protected void hookOnComplete() {
+            if (!received) done = true;
+            fetching = false;
+            drain();
+        }
+    }
+}
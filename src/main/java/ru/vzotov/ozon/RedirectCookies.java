@@ -0,0 +1,82 @@
+package ru.vzotov.ozon;
+
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.cookie.ClientCookieDecoder;
+import io.netty.handler.codec.http.cookie.Cookie;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.netty.http.client.HttpClient;
+import reactor.util.context.Context;
+import reactor.util.context.ContextView;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Cookies set by redirect responses, replayed on the following requests of the same redirect chain.
+ * <p>
+ * A holder is put into the subscriber context of every request with {@link #scope(Context)}, so concurrent requests
+ * made through one {@link HttpClient} never see each other's cookies.
+ */
+final class RedirectCookies {
+
+    private static final Logger log = LoggerFactory.getLogger(RedirectCookies.class);
+
+    private static final Class<RedirectCookies> KEY = RedirectCookies.class;
+
+    private static final Set<Integer> REDIRECTS = Set.of(301, 302, 303, 307, 308);
+
+    private final Map<String, Cookie> cookies = new LinkedHashMap<>();
+
+    private RedirectCookies() {
+    }
+
+    static Context scope(Context context) {
+        return context.put(KEY, new RedirectCookies());
+    }
+
+    static HttpClient followRedirects(HttpClient client) {
+        return client
+                .followRedirect((req, res) -> {
+                    if (!REDIRECTS.contains(res.status().code())) return false;
+                    // cookies are collected before the redirect is followed, so the next request always sees them
+                    log.debug("Redirect {}", res);
+                    final List<Cookie> received = res.responseHeaders().getAll(HttpHeaderNames.SET_COOKIE).stream()
+                            .map(ClientCookieDecoder.LAX::decode)
+                            .filter(Objects::nonNull)
+                            .toList();
+                    if (!received.isEmpty()) {
+                        current(res.currentContextView()).ifPresent(holder -> holder.putAll(received));
+                    }
+                    return true;
+                }, (headers, request) -> {
+                    log.debug("followRedirect {}; headers {}", request, headers);
+                    request.headers(headers);
+                    current(request.currentContextView())
+                            .ifPresent(holder -> holder.cookies().forEach(request::addCookie));
+                });
+    }
+
+    private static Optional<RedirectCookies> current(ContextView context) {
+        final Optional<RedirectCookies> holder = context.getOrEmpty(KEY);
+        if (holder.isEmpty()) {
+            log.debug("Request is not scoped, redirect cookies are not propagated");
+        }
+        return holder;
+    }
+
+    private synchronized void putAll(List<Cookie> received) {
+        for (Cookie cookie : received) {
+            cookies.put(cookie.name(), cookie);
+        }
+    }
+
+    private synchronized List<Cookie> cookies() {
+        return new ArrayList<>(cookies.values());
+    }
+}
@@ -0,0 +1,191 @@
+package ru.vzotov.ozon;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Rate limiting, retries and circuit breaking of requests, configured per host.
+ * <p>
+ * Every attempt passes the circuit breaker of the host first, then waits for a token of its rate limiter. Failed
+ * attempts are retried with jittered exponential backoff when the failure is transient: a retryable
+ * {@link OzonHttpException}, a network I/O error or a timeout. A response that cannot be decoded is not retried, as
+ * fetching it again gives the same body. The maximum backoff also caps {@code Retry-After}: a longer delay is not
+ * waited for, the failure is returned instead.
+ */
+final class RequestPolicy {
+
+    private static final Logger log = LoggerFactory.getLogger(RequestPolicy.class);
+
+    private static final double JITTER = 0.5;
+
+    /**
+     * @param permitsPerSecond sustained request rate
+     * @param burst            number of requests allowed at once after a pause
+     */
+    record RateLimit(double permitsPerSecond, int burst) {
+    }
+
+    /**
+     * @param maxRetries number of retries of a failed request, 0 disables retries
+     * @param minBackoff delay before the first retry
+     * @param maxBackoff maximum delay between retries, a longer {@code Retry-After} fails the request
+     */
+    record Backoff(int maxRetries, Duration minBackoff, Duration maxBackoff) {
+
+        static final Backoff NONE = new Backoff(0, Duration.ZERO, Duration.ZERO);
+
+        Duration delay(long retry) {
+            final double base = Math.min(maxBackoff.toNanos(), minBackoff.toNanos() * Math.pow(2, retry));
+            return Duration.ofNanos((long) (base * (1 - JITTER * ThreadLocalRandom.current().nextDouble())));
+        }
+    }
+
+    /**
+     * @param failureThreshold number of consecutive failures opening the breaker
+     * @param openDuration     time the breaker rejects requests before letting a trial through
+     */
+    record Breaker(int failureThreshold, Duration openDuration) {
+    }
+
+    private final Map<String, TokenBucket> limiters = new ConcurrentHashMap<>();
+
+    private final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+
+    private final Map<String, RateLimit> rateLimits;
+
+    private final Backoff backoff;
+
+    private final Breaker breaker;
+
+    /**
+     * @param breaker breaker settings applied to every host, or null to disable circuit breaking
+     */
+    RequestPolicy(Map<String, RateLimit> rateLimits, Backoff backoff, Breaker breaker) {
+        this.rateLimits = Map.copyOf(rateLimits);
+        this.backoff = requireNonNull(backoff);
+        this.breaker = breaker;
+    }
+
+    static boolean isTransient(Throwable e) {
+        return e instanceof OzonHttpException http ? http.isRetryable() :
+                e instanceof IOException && !(e instanceof JsonProcessingException) ||
+                        e instanceof TimeoutException || e instanceof io.netty.handler.timeout.TimeoutException;
+    }
+
+    <T> Mono<T> apply(String host, Mono<T> request) {
+        return apply(host, request, null, UnaryOperator.identity());
+    }
+
+    /**
+     * Every attempt of a hedged request waits for its own token of the rate limiter, the circuit breaker and retries
+     * apply to the hedged request as a whole.
+     *
+     * @param hedging   hedging of the request, or null
+     * @param admission waits for the admission of an attempt, after its rate limiter token, e.g. by a scheduler
+     */
+    <T> Mono<T> apply(String host, Mono<T> request, Hedging hedging, UnaryOperator<Mono<T>> admission) {
+        final Mono<T> attempt = guarded(host, hedging == null ?
+                limited(host, admission.apply(request)) :
+                hedging.apply(request, sent -> limited(host, admission.apply(sent))));
+        return backoff.maxRetries() == 0 ? attempt : attempt.retryWhen(retry(host, RequestPolicy::isTransient));
+    }
+
+    /**
+     * Items are never emitted twice: once the stream has emitted, its failures are not retried.
+     */
+    <T> Flux<T> apply(String host, Flux<T> request) {
+        final Flux<T> attempt = guarded(host, limited(host, request));
+        if (backoff.maxRetries() == 0) return attempt;
+        return Flux.defer(() -> {
+            final AtomicBoolean emitted = new AtomicBoolean();
+            return attempt.doOnNext(item -> emitted.set(true))
+                    .retryWhen(retry(host, e -> !emitted.get() && isTransient(e)));
+        });
+    }
+
+    private <T> Mono<T> limited(String host, Mono<T> request) {
+        final TokenBucket limiter = limiter(host);
+        return limiter == null ? request : limiter.acquire().then(request);
+    }
+
+    private <T> Flux<T> limited(String host, Flux<T> request) {
+        final TokenBucket limiter = limiter(host);
+        return limiter == null ? request : limiter.acquire().thenMany(request);
+    }
+
+    private <T> Mono<T> guarded(String host, Mono<T> request) {
+        if (breaker == null) return request;
+        final CircuitBreaker breaker = breakers.computeIfAbsent(host, h -> new CircuitBreaker(this.breaker.failureThreshold(), this.breaker.openDuration()));
+        return Mono.defer(() -> breaker.tryAcquire(System.nanoTime()) ?
+                request.doOnSuccess(v -> breaker.onSuccess())
+                        .doOnError(e -> onError(breaker, e))
+                        .doOnCancel(breaker::onCancel) :
+                Mono.error(open(host)));
+    }
+
+    private <T> Flux<T> guarded(String host, Flux<T> request) {
+        if (breaker == null) return request;
+        final CircuitBreaker breaker = breakers.computeIfAbsent(host, h -> new CircuitBreaker(this.breaker.failureThreshold(), this.breaker.openDuration()));
+        return Flux.defer(() -> breaker.tryAcquire(System.nanoTime()) ?
+                request.doOnComplete(breaker::onSuccess)
+                        .doOnError(e -> onError(breaker, e))
+                        .doOnCancel(breaker::onCancel) :
+                Flux.error(open(host)));
+    }
+
+    private static void onError(CircuitBreaker breaker, Throwable e) {
+        if (isTransient(e)) {
+            breaker.onFailure(System.nanoTime());
+        } else {
+            breaker.onSuccess();
+        }
+    }
+
+    private static IllegalStateException open(String host) {
+        return new IllegalStateException("Circuit breaker is open for " + host);
+    }
+
+    private TokenBucket limiter(String host) {
+        final RateLimit limit = rateLimits.get(host);
+        return limit == null ? null :
+                limiters.computeIfAbsent(host, h -> new TokenBucket(limit.permitsPerSecond(), limit.burst(), System.nanoTime()));
+    }
+
+    private Retry retry(String host, Predicate<Throwable> retryable) {
+        return Retry.from(signals -> signals.concatMap(signal -> {
+            final Throwable failure = signal.failure();
+            final long retry = signal.totalRetries();
+            if (retry >= backoff.maxRetries() || !retryable.test(failure)) {
+                return Mono.error(failure);
+            }
+            Duration delay = backoff.delay(retry);
+            if (failure instanceof OzonHttpException http && http.retryAfter().isPresent()) {
+                final Duration retryAfter = http.retryAfter().get();
+                if (retryAfter.compareTo(backoff.maxBackoff()) > 0) {
+                    log.debug("Not retrying request to {}: Retry-After {} exceeds the maximum backoff {}",
+                            host, retryAfter, backoff.maxBackoff());
+                    return Mono.error(failure);
+                }
+                if (retryAfter.compareTo(delay) > 0) delay = retryAfter;
+            }
+            log.debug("Retry {} of request to {} in {}: {}", retry + 1, host, delay, failure.toString());
+            return Mono.delay(delay);
+        }));
+    }
+}
@@ -0,0 +1,37 @@
+package ru.vzotov.ozon;
+
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent calls with the same key: while a call is in flight, callers with its key subscribe to it
+ * instead of making their own. The result is replayed to callers that join after it was emitted, until the call is
+ * removed. The call is cancelled only when all its subscribers have cancelled.
+ */
+final class SingleFlight<K, V> {
+
+    private final ConcurrentMap<K, Mono<V>> inFlight = new ConcurrentHashMap<>();
+
+    Mono<V> execute(K key, Supplier<Mono<V>> call) {
+        return Mono.defer(() -> inFlight.computeIfAbsent(key, k -> {
+            final Flight<V> flight = new Flight<>();
+            flight.shared = Mono.fromDirect(call.get()
+                    .doFinally(signal -> inFlight.remove(k, flight.shared))
+                    .flux()
+                    .replay(1)
+                    .refCount());
+            return flight.shared;
+        }));
+    }
+
+    int size() {
+        return inFlight.size();
+    }
+
+    private static final class Flight<V> {
+        private volatile Mono<V> shared;
+    }
+}
@@ -0,0 +1,52 @@
+package ru.vzotov.ozon;
+
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+
+/**
+ * Token bucket rate limiter. A request that finds the bucket empty reserves the next token and waits for it, so waiting
+ * requests are served in order at the configured rate.
+ */
+final class TokenBucket {
+
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    private final double permitsPerSecond;
+
+    private final int burst;
+
+    private double tokens;
+
+    private long refilledAt;
+
+    TokenBucket(double permitsPerSecond, int burst, long now) {
+        if (!(permitsPerSecond > 0)) throw new IllegalArgumentException("permitsPerSecond must be positive: " + permitsPerSecond);
+        if (burst <= 0) throw new IllegalArgumentException("burst must be positive: " + burst);
+        this.permitsPerSecond = permitsPerSecond;
+        this.burst = burst;
+        this.tokens = burst;
+        this.refilledAt = now;
+    }
+
+    Mono<Void> acquire() {
+        return Mono.defer(() -> {
+            final long wait = reserve(System.nanoTime());
+            return wait == 0 ? Mono.empty() : Mono.delay(Duration.ofNanos(wait)).then();
+        });
+    }
+
+    /**
+     * Takes a token.
+     *
+     * @return nanoseconds to wait before the token may be used
+     */
+    synchronized long reserve(long now) {
+        if (now > refilledAt) {
+            tokens = Math.min(burst, tokens + (now - refilledAt) * permitsPerSecond / NANOS_PER_SECOND);
+            refilledAt = now;
+        }
+        tokens -= 1;
+        return tokens >= 0 ? 0 : (long) Math.ceil(-tokens * NANOS_PER_SECOND / permitsPerSecond);
+    }
+}
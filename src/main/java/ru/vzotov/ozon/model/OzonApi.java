@@ -6,10 +6,15 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonSubTypes;
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
+import com.fasterxml.jackson.core.JsonProcessingException;
 
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.OffsetDateTime;
+import java.time.Period;
 import java.time.YearMonth;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
@@ -17,8 +22,10 @@ import java.time.format.DateTimeFormatterBuilder;
 import java.time.format.DateTimeParseException;
 import java.time.format.SignStyle;
 import java.time.format.TextStyle;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
@@ -26,6 +33,7 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 import static com.fasterxml.jackson.annotation.JsonFormat.Shape.STRING;
@@ -232,29 +240,206 @@ public interface OzonApi {
     ) {
     }
 
-    record ComposerResponse(
-            List<Component> layout,
-            Map<String, String> widgetStates,
-            Object browser,
-            String layoutTrackingInfo,
-            String shared,
-            String nextPage,
-            Object pageInfo,
-            Map<String, String> trackingPayloads,
-            String pageToken,
-            String userToken,
-            String requestID
-    ) {
+    final class ComposerResponse {
         public static final String C_ORDER_LIST_APP = "orderListApp";
         public static final String C_CHEQUES = "cheques";
+        public static final String C_ORDER_TOTAL = "orderTotal";
+        public static final String C_ORDER_ACTIONS = "orderActions";
+        public static final String C_SHIPMENT_WIDGET = "shipmentWidget";
+        public static final String C_SELLER_PRODUCTS = "sellerProducts";
+
+        private final List<Component> layout;
+        private final Map<String, String> widgetStates;
+        private final Object browser;
+        private final String layoutTrackingInfo;
+        private final String shared;
+        private final String nextPage;
+        private final Object pageInfo;
+        private final Map<String, String> trackingPayloads;
+        private final String pageToken;
+        private final String userToken;
+        private final String requestID;
+
+        @JsonIgnore
+        private final Map<String, Set<String>> componentStates;
+
+        @JsonIgnore
+        private final Map<DecodedState, Set<?>> decodedStates = new ConcurrentHashMap<>();
+
+        @JsonCreator
+        public ComposerResponse(
+                @JsonProperty("layout")
+                List<Component> layout,
+                @JsonProperty("widgetStates")
+                Map<String, String> widgetStates,
+                @JsonProperty("browser")
+                Object browser,
+                @JsonProperty("layoutTrackingInfo")
+                String layoutTrackingInfo,
+                @JsonProperty("shared")
+                String shared,
+                @JsonProperty("nextPage")
+                String nextPage,
+                @JsonProperty("pageInfo")
+                Object pageInfo,
+                @JsonProperty("trackingPayloads")
+                Map<String, String> trackingPayloads,
+                @JsonProperty("pageToken")
+                String pageToken,
+                @JsonProperty("userToken")
+                String userToken,
+                @JsonProperty("requestID")
+                String requestID
+        ) {
+            this.layout = layout;
+            this.widgetStates = widgetStates;
+            this.browser = browser;
+            this.layoutTrackingInfo = layoutTrackingInfo;
+            this.shared = shared;
+            this.nextPage = nextPage;
+            this.pageInfo = pageInfo;
+            this.trackingPayloads = trackingPayloads;
+            this.pageToken = pageToken;
+            this.userToken = userToken;
+            this.requestID = requestID;
+            this.componentStates = indexComponentStates(layout, widgetStates);
+        }
+
+        /**
+         * Builds an immutable multimap from component name to its states in layout order.
+         */
+        private static Map<String, Set<String>> indexComponentStates(List<Component> layout, Map<String, String> widgetStates) {
+            if (layout == null || widgetStates == null) return Collections.emptyMap();
+            final Map<String, Set<String>> index = new HashMap<>();
+            for (Component c : layout) {
+                if (c == null || c.component() == null || c.stateId() == null) continue;
+                final String state = widgetStates.get(c.stateId());
+                if (state != null) {
+                    index.computeIfAbsent(c.component(), k -> new LinkedHashSet<>()).add(state);
+                }
+            }
+            index.replaceAll((component, states) -> Collections.unmodifiableSet(states));
+            return Collections.unmodifiableMap(index);
+        }
 
         public Set<String> widgetState(String component) {
-            return layout == null ? Collections.emptySet() : layout.stream()
-                    .filter(c -> component.equals(c.component))
-                    .map(Component::stateId)
-                    .distinct()
-                    .map(widgetStates::get)
-                    .collect(Collectors.toCollection(LinkedHashSet::new));
+            return componentStates.getOrDefault(component, Collections.emptySet());
+        }
+
+        /**
+         * Decodes the embedded JSON states of the component. Each state is decoded at most once, the result is cached
+         * on this page.
+         */
+        @SuppressWarnings("unchecked")
+        public <T> Set<T> widgetState(String component, Class<T> type, StateDecoder decoder) throws JsonProcessingException {
+            try {
+                return (Set<T>) decodedStates.computeIfAbsent(new DecodedState(component, type), key -> {
+                    final Set<String> states = widgetState(component);
+                    final Set<T> result = new LinkedHashSet<>(states.size());
+                    for (String state : states) {
+                        try {
+                            result.add(decoder.decode(state, type));
+                        } catch (JsonProcessingException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }
+                    return Collections.unmodifiableSet(result);
+                });
+            } catch (UncheckedIOException e) {
+                throw (JsonProcessingException) e.getCause();
+            }
+        }
+
+        public List<Component> layout() {
+            return layout;
+        }
+
+        public Map<String, String> widgetStates() {
+            return widgetStates;
+        }
+
+        public Object browser() {
+            return browser;
+        }
+
+        public String layoutTrackingInfo() {
+            return layoutTrackingInfo;
+        }
+
+        public String shared() {
+            return shared;
+        }
+
+        public String nextPage() {
+            return nextPage;
+        }
+
+        public Object pageInfo() {
+            return pageInfo;
+        }
+
+        public Map<String, String> trackingPayloads() {
+            return trackingPayloads;
+        }
+
+        public String pageToken() {
+            return pageToken;
+        }
+
+        public String userToken() {
+            return userToken;
+        }
+
+        public String requestID() {
+            return requestID;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == this) return true;
+            if (obj == null || obj.getClass() != this.getClass()) return false;
+            var that = (ComposerResponse) obj;
+            return Objects.equals(this.layout, that.layout) &&
+                    Objects.equals(this.widgetStates, that.widgetStates) &&
+                    Objects.equals(this.browser, that.browser) &&
+                    Objects.equals(this.layoutTrackingInfo, that.layoutTrackingInfo) &&
+                    Objects.equals(this.shared, that.shared) &&
+                    Objects.equals(this.nextPage, that.nextPage) &&
+                    Objects.equals(this.pageInfo, that.pageInfo) &&
+                    Objects.equals(this.trackingPayloads, that.trackingPayloads) &&
+                    Objects.equals(this.pageToken, that.pageToken) &&
+                    Objects.equals(this.userToken, that.userToken) &&
+                    Objects.equals(this.requestID, that.requestID);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(layout, widgetStates, browser, layoutTrackingInfo, shared, nextPage, pageInfo,
+                    trackingPayloads, pageToken, userToken, requestID);
+        }
+
+        @Override
+        public String toString() {
+            return "ComposerResponse[" +
+                    "layout=" + layout + ", " +
+                    "widgetStates=" + widgetStates + ", " +
+                    "browser=" + browser + ", " +
+                    "layoutTrackingInfo=" + layoutTrackingInfo + ", " +
+                    "shared=" + shared + ", " +
+                    "nextPage=" + nextPage + ", " +
+                    "pageInfo=" + pageInfo + ", " +
+                    "trackingPayloads=" + trackingPayloads + ", " +
+                    "pageToken=" + pageToken + ", " +
+                    "userToken=" + userToken + ", " +
+                    "requestID=" + requestID + ']';
+        }
+
+        @FunctionalInterface
+        public interface StateDecoder {
+            <T> T decode(String state, Class<T> type) throws JsonProcessingException;
+        }
+
+        private record DecodedState(String component, Class<?> type) {
         }
 
         public record Component(
@@ -307,6 +492,23 @@ public interface OzonApi {
         public DateRange(YearMonth month) {
             this(month.atDay(1), month.atEndOfMonth());
         }
+
+        /**
+         * Splits this range into consecutive non-overlapping ranges of the given length, the last one may be shorter.
+         */
+        public List<DateRange> split(Period period) {
+            if (period.isZero() || period.isNegative()) {
+                throw new IllegalArgumentException("Period must be positive: " + period);
+            }
+            final List<DateRange> result = new ArrayList<>();
+            for (LocalDate start = from; !start.isAfter(to); ) {
+                final LocalDate next = start.plus(period);
+                final LocalDate end = next.isAfter(to) ? to : next.minusDays(1);
+                result.add(new DateRange(start, end));
+                start = next;
+            }
+            return result;
+        }
     }
 
     enum Direction {
@@ -349,6 +551,9 @@ public interface OzonApi {
         @JsonIgnore
         private LocalDate date;
 
+        @JsonIgnore
+        private Long fingerprint;
+
         @JsonCreator
         public Order(
                 @JsonProperty("header")
@@ -367,7 +572,8 @@ public interface OzonApi {
         public LocalDate date() {
             if (date == null) {
                 try {
-                    date = LocalDate.parse(header().title(), TITLE_FORMATTER);
+                    date = header == null || header.title() == null ?
+                            LocalDate.MIN : LocalDate.parse(header.title(), TITLE_FORMATTER);
                 } catch (DateTimeParseException e) {
                     date = LocalDate.MIN;
                 }
@@ -376,18 +582,67 @@ public interface OzonApi {
 
         }
 
+        @JsonProperty("header")
         public Header header() {
             return header;
         }
 
+        @JsonProperty("deeplink")
         public String deeplink() {
             return deeplink;
         }
 
+        @JsonProperty("sections")
         public List<Section> sections() {
             return sections;
         }
 
+        /**
+         * Structural hash of what the order list shows about the order: the header and the title, status,
+         * descriptions, products and buttons of its sections. Tracking data is left out. The hash is stable across
+         * runs, so fingerprints can be persisted and compared to find changed orders without fetching their details.
+         */
+        public long fingerprint() {
+            if (fingerprint == null) {
+                final Fnv fnv = new Fnv();
+                if (header != null) fnv.add(header.title()).add(header.number());
+                fnv.add(deeplink);
+                if (sections != null) {
+                    for (Section section : sections) {
+                        fnv.add(section.title()).add(section.shipmentId());
+                        if (section.status() != null) fnv.add(section.status().color()).add(section.status().name());
+                        if (section.description() != null) {
+                            for (Description d : section.description()) fnv.add(d.type()).add(d.text());
+                        }
+                        if (section.products() != null) {
+                            for (Product p : section.products()) fnv.add(p.image()).add(p.deeplink());
+                        }
+                        if (section.buttons() != null) {
+                            for (ComposerResponse.Button b : section.buttons()) {
+                                fnv.add(b.id()).add(b.text()).add(b.theme());
+                                if (b.action() != null) fnv.add(b.action().behavior()).add(b.action().link());
+                            }
+                        }
+                        fnv.add("\u001d");
+                    }
+                }
+                fingerprint = fnv.hash;
+            }
+            return fingerprint;
+        }
+
+        /**
+         * @return order number from the header, or from the deeplink if the header has none
+         */
+        public String number() {
+            if (header != null && header.number() != null) return header.number();
+            if (deeplink == null) return null;
+            final int i = deeplink.indexOf("order=");
+            if (i < 0) return null;
+            final int end = deeplink.indexOf('&', i);
+            return deeplink.substring(i + "order=".length(), end < 0 ? deeplink.length() : end);
+        }
+
         @Override
         public boolean equals(Object obj) {
             if (obj == this) return true;
@@ -412,6 +667,25 @@ public interface OzonApi {
         }
 
 
+        /**
+         * 64-bit FNV-1a hash of a sequence of strings.
+         */
+        private static final class Fnv {
+            private long hash = 0xcbf29ce484222325L;
+
+            Fnv add(String value) {
+                if (value != null) {
+                    for (int i = 0; i < value.length(); i++) {
+                        final char c = value.charAt(i);
+                        hash = (hash ^ (c & 0xff)) * 0x100000001b3L;
+                        hash = (hash ^ (c >>> 8)) * 0x100000001b3L;
+                    }
+                }
+                hash = (hash ^ (value == null ? 0xfe : 0xff)) * 0x100000001b3L;
+                return this;
+            }
+        }
+
         public record Header(
                 String title,
                 String number
@@ -592,6 +866,32 @@ public interface OzonApi {
 
     }
 
+    /**
+     * Outcome of a download to a file.
+     *
+     * @param path        downloaded file
+     * @param bytes       size of the file
+     * @param transferred bytes received by this download, less than the size when a partial download was resumed
+     * @param elapsed     duration of the download
+     * @param sha256      hex SHA-256 checksum of the file
+     */
+    record DownloadResult(Path path, long bytes, long transferred, Duration elapsed, String sha256) {
+
+        /**
+         * @return bytes received per second
+         */
+        public double throughput() {
+            final long nanos = elapsed.toNanos();
+            return nanos == 0 ? 0 : transferred * 1e9 / nanos;
+        }
+    }
+
+    /**
+     * Order with its details and the seller products of all its postings.
+     */
+    record OrderGraph(Order order, List<OrderDetailsPage> details, List<OrderDetailsPosting> postings) {
+    }
+
 
     @JsonTypeInfo(use = DEDUCTION, defaultImpl = SellerProductsList.class)
     @JsonSubTypes({
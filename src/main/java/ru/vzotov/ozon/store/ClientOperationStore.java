@@ -0,0 +1,241 @@
+package ru.vzotov.ozon.store;
+
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import ru.vzotov.ozon.Ozon;
+import ru.vzotov.ozon.model.OzonApi;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Local copy of the client operations of many accounts.
+ * <p>
+ * Operations of an account are kept in an append-only {@link RecordLog}, deduplicated by
+ * {@link OzonApi.ClientOperation#operationId()}. The time of the newest operation of the last completed sync is the
+ * high watermark of the account: a {@linkplain #sync sync} fetches only the operations since the watermark minus the
+ * overlap window, which picks up operations that were late or changed their status. The watermark is not moved by a
+ * sync that fails or is cancelled, so the next sync fetches the operations it missed.
+ */
+public final class ClientOperationStore implements Closeable {
+
+    private static final long MAX_SEGMENT_BYTES = 64L << 20;
+
+    private static final int PER_PAGE = 50;
+
+    private static final String WATERMARK = "watermark";
+
+    private final Path directory;
+
+    private final Duration overlap;
+
+    private final ObjectReader reader;
+
+    private final ObjectWriter writer;
+
+    private final Map<String, Account> accounts = new HashMap<>();
+
+    private ClientOperationStore(Path directory, Duration overlap) {
+        this.directory = requireNonNull(directory);
+        this.overlap = requireNonNull(overlap);
+        this.reader = StoreJson.mapper().readerFor(OzonApi.ClientOperation.class);
+        this.writer = StoreJson.mapper().writerFor(OzonApi.ClientOperation.class);
+    }
+
+    /**
+     * @param overlap time before the watermark that is fetched again on every sync
+     */
+    public static ClientOperationStore open(Path directory, Duration overlap) throws IOException {
+        if (overlap.isNegative()) throw new IllegalArgumentException("overlap must not be negative");
+        Files.createDirectories(directory);
+        return new ClientOperationStore(directory, overlap);
+    }
+
+    public static ClientOperationStore open(Path directory) throws IOException {
+        return open(directory, Duration.ofDays(1));
+    }
+
+    /**
+     * Fetches the operations of the account since its watermark, or since the given date for the first sync, and
+     * stores them.
+     *
+     * @return operations that were not stored before or have changed
+     */
+    public Flux<OzonApi.ClientOperation> sync(Ozon ozon, String account, LocalDate since) {
+        requireNonNull(ozon);
+        requireNonNull(since);
+        return Mono.fromCallable(() -> account(account))
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMapMany(store -> {
+                    final OffsetDateTime watermark = store.watermark();
+                    final LocalDate from = watermark == null ? since : watermark.minus(overlap).toLocalDate();
+                    final OzonApi.ClientOperationsRequest request = new OzonApi.ClientOperationsRequest(
+                            new OzonApi.Cursors(),
+                            new OzonApi.ClientOperationsFilter(
+                                    Collections.emptyList(),
+                                    new OzonApi.DateRange(from, LocalDate.now()),
+                                    OzonApi.ClientOperationsFilter.EFFECT_UNKNOWN
+                            ),
+                            1,
+                            PER_PAGE
+                    );
+                    final AtomicReference<OffsetDateTime> newest = new AtomicReference<>();
+                    return ozon.clientOperations(request)
+                            .publishOn(Schedulers.boundedElastic())
+                            .concatMapIterable(page -> {
+                                if (page.items() == null) return List.of();
+                                for (OzonApi.ClientOperation operation : page.items()) {
+                                    newest.accumulateAndGet(operation.time(), ClientOperationStore::later);
+                                }
+                                try {
+                                    return store.putAll(page.items());
+                                } catch (IOException e) {
+                                    throw new UncheckedIOException(e);
+                                }
+                            })
+                            .concatWith(Mono.fromRunnable(() -> store.complete(newest.get())));
+                });
+    }
+
+    public Optional<OffsetDateTime> watermark(String account) throws IOException {
+        return Optional.ofNullable(account(account).watermark());
+    }
+
+    public Optional<OzonApi.ClientOperation> get(String account, String operationId) throws IOException {
+        final byte[] value = account(account).log.get(operationId);
+        return value == null ? Optional.empty() : Optional.of(reader.readValue(value));
+    }
+
+    /**
+     * @return stored operations of the account, in the order they were last changed
+     */
+    public List<OzonApi.ClientOperation> operations(String account) throws IOException {
+        final List<OzonApi.ClientOperation> result = new ArrayList<>();
+        final RecordLog log = account(account).log;
+        try {
+            log.forEach((key, value) -> {
+                try {
+                    result.add(reader.readValue(value));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        IOException failure = null;
+        for (Account account : accounts.values()) {
+            try {
+                account.close();
+            } catch (IOException e) {
+                if (failure == null) failure = e; else failure.addSuppressed(e);
+            }
+        }
+        accounts.clear();
+        if (failure != null) throw failure;
+    }
+
+    private static OffsetDateTime later(OffsetDateTime a, OffsetDateTime b) {
+        return a == null || b != null && b.isAfter(a) ? b : a;
+    }
+
+    private synchronized Account account(String account) throws IOException {
+        requireNonNull(account);
+        Account result = accounts.get(account);
+        if (result == null) {
+            result = new Account(directory.resolve(URLEncoder.encode(account, StandardCharsets.UTF_8)));
+            accounts.put(account, result);
+        }
+        return result;
+    }
+
+    private final class Account implements Closeable {
+        private final Path directory;
+        private final RecordLog log;
+        private OffsetDateTime watermark;
+
+        private Account(Path directory) throws IOException {
+            this.directory = directory;
+            this.log = RecordLog.open(directory, MAX_SEGMENT_BYTES);
+            try {
+                this.watermark = OffsetDateTime.parse(Files.readString(directory.resolve(WATERMARK)));
+            } catch (NoSuchFileException e) {
+                // no sync has completed yet, stored operations may be a partial result
+                this.watermark = null;
+            }
+        }
+
+        synchronized OffsetDateTime watermark() {
+            return watermark;
+        }
+
+        synchronized List<OzonApi.ClientOperation> putAll(List<OzonApi.ClientOperation> operations) throws IOException {
+            if (operations == null) return List.of();
+            final List<OzonApi.ClientOperation> changed = new ArrayList<>();
+            for (OzonApi.ClientOperation operation : operations) {
+                if (operation.operationId() == null) continue;
+                if (log.put(operation.operationId(), writer.writeValueAsBytes(operation))) {
+                    changed.add(operation);
+                }
+            }
+            return changed;
+        }
+
+        synchronized void flush() throws IOException {
+            log.flush();
+            if (watermark != null) {
+                final Path tmp = directory.resolve(WATERMARK + ".tmp");
+                Files.writeString(tmp, watermark.toString());
+                Files.move(tmp, directory.resolve(WATERMARK), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+        }
+
+        /**
+         * Moves the watermark to the newest operation of a completed sync, and saves the account.
+         */
+        synchronized void complete(OffsetDateTime newest) {
+            watermark = later(watermark, newest);
+            try {
+                flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            try {
+                flush();
+            } finally {
+                log.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package ru.vzotov.ozon.store;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import ru.vzotov.ozon.Ozon;
+import ru.vzotov.ozon.OzonScheduler;
+import ru.vzotov.ozon.model.OzonApi;
+
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Optional;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Archives the PDFs of e-checks into a {@link PdfCache}.
+ * <p>
+ * E-check pages are streamed, and downloads start while later pages are still loading. At most {@code maxInFlight}
+ * downloads run at once, and at most {@code maxInFlightPerHost} of them go to the same host. Checks already in the
+ * cache are not downloaded again. A failed download is recorded in the manifest and does not stop the archive. The
+ * cache is {@linkplain PdfCache#hold() held} during the run, so files evicted to make room for later checks are only
+ * deleted when it ends.
+ */
+public final class EChecksArchive {
+
+    private static final Logger log = LoggerFactory.getLogger(EChecksArchive.class);
+
+    private final PdfCache cache;
+
+    private final int maxInFlight;
+
+    private final OzonScheduler downloads;
+
+    public EChecksArchive(PdfCache cache, int maxInFlight, int maxInFlightPerHost) {
+        if (maxInFlight <= 0) throw new IllegalArgumentException("maxInFlight must be positive: " + maxInFlight);
+        if (maxInFlightPerHost <= 0) {
+            throw new IllegalArgumentException("maxInFlightPerHost must be positive: " + maxInFlightPerHost);
+        }
+        this.cache = requireNonNull(cache);
+        this.downloads = new OzonScheduler(maxInFlight, maxInFlightPerHost);
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * @param since archives checks issued on or after the date, and checks without a date, or all checks if null
+     * @return results of all checks, in the order of the e-check list
+     */
+    public Mono<Manifest> archive(Ozon ozon, LocalDate since) {
+        requireNonNull(ozon);
+        return Mono.using(cache::hold, hold -> run(ozon, since), PdfCache.Hold::close);
+    }
+
+    private Mono<Manifest> run(Ozon ozon, LocalDate since) {
+        return (since == null ? ozon.eChecks() : ozon.eChecks(since))
+                .concatMapIterable(page -> page.items() == null ? List.<OzonApi.Check>of() : page.items())
+                // the window exceeds the download limit, so that checks of an idle host are not stuck behind a busy one
+                .flatMapSequential(check -> archive(ozon, check), maxInFlight * 4, 1)
+                .collectList()
+                .flatMap(items -> Mono.fromCallable(() -> {
+                    cache.flush();
+                    return new Manifest(items);
+                }).subscribeOn(Schedulers.boundedElastic()));
+    }
+
+    private Mono<Item> archive(Ozon ozon, OzonApi.Check check) {
+        final String pdf = pdfLink(check);
+        if (pdf == null) return Mono.just(new Item(check, null, Status.FAILED, null, "No PDF link"));
+        final URI link;
+        try {
+            link = URI.create(pdf);
+        } catch (IllegalArgumentException e) {
+            return Mono.just(new Item(check, null, Status.FAILED, null, "Invalid PDF link: " + pdf));
+        }
+        final Optional<Path> cached = cache.get(link);
+        if (cached.isPresent()) return Mono.just(new Item(check, link, Status.CACHED, cached.get(), null));
+        return downloads.schedule(host(link), Mono.defer(() -> cache.download(ozon, link)))
+                .map(path -> new Item(check, link, Status.DOWNLOADED, path, null))
+                .onErrorResume(e -> {
+                    log.warn("Failed to archive {}: {}", link, e.toString());
+                    return Mono.just(new Item(check, link, Status.FAILED, null,
+                            e instanceof UncheckedIOException io ? io.getCause().toString() : e.toString()));
+                });
+    }
+
+    private static String pdfLink(OzonApi.Check check) {
+        final OzonApi.ComposerResponse.Button button = check.button();
+        return button == null || button.action() == null ? null : button.action().link();
+    }
+
+    private static String host(URI link) {
+        try {
+            final String host = URI.create(PdfCache.key(link)).getHost();
+            return host == null ? "" : host;
+        } catch (IllegalArgumentException e) {
+            return "";
+        }
+    }
+
+    public enum Status {
+        /**
+         * The PDF was downloaded by this run.
+         */
+        DOWNLOADED,
+        /**
+         * The PDF was in the cache already.
+         */
+        CACHED,
+        FAILED
+    }
+
+    /**
+     * @param link  link of the PDF, or null if the check has none
+     * @param path  cached PDF, or null if the check failed. Once the run has ended, it may be evicted by later downloads.
+     * @param error reason of the failure, or null
+     */
+    public record Item(OzonApi.Check check, URI link, Status status, Path path, String error) {
+    }
+
+    public record Manifest(List<Item> items) {
+
+        public Manifest {
+            items = List.copyOf(items);
+        }
+
+        public long count(Status status) {
+            return items.stream().filter(item -> item.status() == status).count();
+        }
+
+        public List<Item> failures() {
+            return items.stream().filter(item -> item.status() == Status.FAILED).toList();
+        }
+    }
+}
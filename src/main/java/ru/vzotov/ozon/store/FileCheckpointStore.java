@@ -0,0 +1,97 @@
+package ru.vzotov.ozon.store;
+
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import ru.vzotov.ozon.CheckpointStore;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Keeps each checkpoint in its own file, named after the hash of the stream key. A checkpoint is written to a
+ * temporary file, forced to disk and then atomically moved in place, so a crash leaves either the old or the new one.
+ */
+public final class FileCheckpointStore implements CheckpointStore {
+
+    private static final String SUFFIX = ".checkpoint";
+
+    private final Path directory;
+
+    private FileCheckpointStore(Path directory) {
+        this.directory = requireNonNull(directory);
+    }
+
+    public static FileCheckpointStore open(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        return new FileCheckpointStore(directory);
+    }
+
+    @Override
+    public Mono<String> load(String stream) {
+        return Mono.fromCallable(() -> {
+            try {
+                return Files.readString(file(stream), StandardCharsets.UTF_8);
+            } catch (NoSuchFileException e) {
+                return null;
+            }
+        }).subscribeOn(Schedulers.boundedElastic());
+    }
+
+    @Override
+    public Mono<Void> save(String stream, String checkpoint) {
+        requireNonNull(checkpoint);
+        return Mono.<Void>fromRunnable(() -> write(file(stream), checkpoint)).subscribeOn(Schedulers.boundedElastic());
+    }
+
+    @Override
+    public Mono<Void> clear(String stream) {
+        return Mono.<Void>fromRunnable(() -> delete(file(stream))).subscribeOn(Schedulers.boundedElastic());
+    }
+
+    private static void write(Path file, String checkpoint) {
+        final Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(tmp,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                final ByteBuffer content = ByteBuffer.wrap(checkpoint.getBytes(StandardCharsets.UTF_8));
+                while (content.hasRemaining()) {
+                    channel.write(content);
+                }
+                channel.force(true);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void delete(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Path file(String stream) {
+        try {
+            final byte[] hash = MessageDigest.getInstance("SHA-256").digest(stream.getBytes(StandardCharsets.UTF_8));
+            return directory.resolve(HexFormat.of().formatHex(hash) + SUFFIX);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
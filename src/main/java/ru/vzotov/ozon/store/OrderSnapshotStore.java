@@ -0,0 +1,240 @@
+package ru.vzotov.ozon.store;
+
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import ru.vzotov.ozon.Ozon;
+import ru.vzotov.ozon.model.OzonApi;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Local copy of the resolved order graphs of many accounts, keyed by order number.
+ * <p>
+ * A snapshot is stored in a {@link RecordLog} as a flags byte and the {@linkplain OzonApi.Order#fingerprint()
+ * fingerprint} of the order, followed by the deflated JSON of the graph. A {@linkplain #sync sync} fetches the details
+ * only of orders that are new or whose fingerprint has changed, the others are taken from the store. Once all sections
+ * of an order have a terminal status, its snapshot is marked immutable and is not fetched again even if the order
+ * list shows it differently.
+ */
+public final class OrderSnapshotStore implements Closeable {
+
+    /**
+     * Status name prefixes of orders that are not going to change: received, handed over, cancelled or returned.
+     */
+    public static final Set<String> TERMINAL_STATUSES = Set.of("получен", "вручен", "отменен", "возвращен");
+
+    private static final long MAX_SEGMENT_BYTES = 64L << 20;
+
+    private static final byte IMMUTABLE = 1;
+
+    private static final int HEADER = 1 + Long.BYTES;
+
+    private final Path directory;
+
+    private final Predicate<OzonApi.Order> terminal;
+
+    private final ObjectReader reader;
+
+    private final ObjectWriter writer;
+
+    private final Map<String, RecordLog> accounts = new HashMap<>();
+
+    private OrderSnapshotStore(Path directory, Predicate<OzonApi.Order> terminal) {
+        this.directory = requireNonNull(directory);
+        this.terminal = requireNonNull(terminal);
+        this.reader = StoreJson.mapper().readerFor(OzonApi.OrderGraph.class);
+        this.writer = StoreJson.mapper().writerFor(OzonApi.OrderGraph.class);
+    }
+
+    /**
+     * @param terminal tells whether the order is in a terminal state and its snapshot is immutable
+     */
+    public static OrderSnapshotStore open(Path directory, Predicate<OzonApi.Order> terminal) throws IOException {
+        Files.createDirectories(directory);
+        return new OrderSnapshotStore(directory, terminal);
+    }
+
+    public static OrderSnapshotStore open(Path directory) throws IOException {
+        return open(directory, OrderSnapshotStore::isTerminal);
+    }
+
+    /**
+     * @return true if every section of the order has a status starting with one of {@link #TERMINAL_STATUSES}
+     */
+    public static boolean isTerminal(OzonApi.Order order) {
+        if (order.sections() == null || order.sections().isEmpty()) return false;
+        for (OzonApi.Order.Section section : order.sections()) {
+            if (section.status() == null || section.status().name() == null) return false;
+            final String name = section.status().name().toLowerCase(Locale.ROOT).replace('ё', 'е');
+            if (TERMINAL_STATUSES.stream().noneMatch(name::startsWith)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Lists the orders of the account and resolves their graphs. Graphs of new and changed orders are fetched and
+     * stored, the others are read from the store.
+     *
+     * @param concurrency number of orders, and of postings of each order, fetched at once
+     * @return graphs of all listed orders, in the order of the order list
+     */
+    public Flux<OzonApi.OrderGraph> sync(Ozon ozon, String account, OzonApi.OrderListFilter filter, int concurrency) {
+        return sync(ozon, account, filter, concurrency, true);
+    }
+
+    /**
+     * Like {@link #sync(Ozon, String, OzonApi.OrderListFilter, int)}, but emits only the graphs of new and changed
+     * orders.
+     */
+    public Flux<OzonApi.OrderGraph> changes(Ozon ozon, String account, OzonApi.OrderListFilter filter, int concurrency) {
+        return sync(ozon, account, filter, concurrency, false);
+    }
+
+    private Flux<OzonApi.OrderGraph> sync(Ozon ozon, String account, OzonApi.OrderListFilter filter, int concurrency,
+                                          boolean unchanged) {
+        requireNonNull(ozon);
+        requireNonNull(filter);
+        if (concurrency < 1) throw new IllegalArgumentException("concurrency must be positive: " + concurrency);
+        return Mono.fromCallable(() -> log(account))
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMapMany(log -> ozon.orders(filter)
+                        .concatMapIterable(list -> list.items() == null ? List.of() : list.items())
+                        .filter(order -> order.number() != null)
+                        .publishOn(Schedulers.boundedElastic())
+                        .flatMapSequential(order -> {
+                            final byte[] value = value(log, order.number());
+                            if (value != null && ((value[0] & IMMUTABLE) != 0 || fingerprint(value) == order.fingerprint())) {
+                                return unchanged ? Mono.just(decode(value).graph()) : Mono.<OzonApi.OrderGraph>empty();
+                            }
+                            return ozon.orderGraph(order, concurrency)
+                                    .publishOn(Schedulers.boundedElastic())
+                                    .doOnNext(graph -> write(log, graph));
+                        }, concurrency, 1)
+                        .concatWith(Mono.fromRunnable(() -> flush(log))));
+    }
+
+    public Optional<OzonApi.OrderGraph> get(String account, String number) throws IOException {
+        return Optional.ofNullable(read(log(account), number)).map(Snapshot::graph);
+    }
+
+    public boolean isImmutable(String account, String number) throws IOException {
+        final Snapshot snapshot = read(log(account), number);
+        return snapshot != null && snapshot.immutable();
+    }
+
+    /**
+     * @return stored order graphs of the account, in the order they were last changed
+     */
+    public List<OzonApi.OrderGraph> orders(String account) throws IOException {
+        final List<OzonApi.OrderGraph> result = new ArrayList<>();
+        try {
+            log(account).forEach((key, value) -> result.add(decode(value).graph()));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        IOException failure = null;
+        for (RecordLog log : accounts.values()) {
+            try {
+                log.close();
+            } catch (IOException e) {
+                if (failure == null) failure = e; else failure.addSuppressed(e);
+            }
+        }
+        accounts.clear();
+        if (failure != null) throw failure;
+    }
+
+    private synchronized RecordLog log(String account) throws IOException {
+        requireNonNull(account);
+        RecordLog result = accounts.get(account);
+        if (result == null) {
+            result = RecordLog.open(directory.resolve(URLEncoder.encode(account, StandardCharsets.UTF_8)), MAX_SEGMENT_BYTES);
+            accounts.put(account, result);
+        }
+        return result;
+    }
+
+    private Snapshot read(RecordLog log, String number) {
+        final byte[] value = value(log, number);
+        return value == null ? null : decode(value);
+    }
+
+    private static byte[] value(RecordLog log, String number) {
+        try {
+            return log.get(number);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void flush(RecordLog log) {
+        try {
+            log.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static long fingerprint(byte[] value) {
+        return ByteBuffer.wrap(value, 1, Long.BYTES).getLong();
+    }
+
+    private void write(RecordLog log, OzonApi.OrderGraph graph) {
+        try {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            out.write(terminal.test(graph.order()) ? IMMUTABLE : 0);
+            out.write(ByteBuffer.allocate(Long.BYTES).putLong(graph.order().fingerprint()).array());
+            final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+            try (DeflaterOutputStream deflated = new DeflaterOutputStream(out, deflater)) {
+                writer.writeValue(deflated, graph);
+            } finally {
+                deflater.end();
+            }
+            log.put(graph.order().number(), out.toByteArray());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Snapshot decode(byte[] value) {
+        try (InputStream in = new InflaterInputStream(new ByteArrayInputStream(value, HEADER, value.length - HEADER))) {
+            return new Snapshot((value[0] & IMMUTABLE) != 0, reader.readValue(in));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private record Snapshot(boolean immutable, OzonApi.OrderGraph graph) {
+    }
+}
@@ -0,0 +1,358 @@
+package ru.vzotov.ozon.store;
+
+import io.netty.handler.codec.http.QueryStringDecoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import ru.vzotov.ozon.Ozon;
+import ru.vzotov.ozon.model.OzonApi;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Stream;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Disk cache of downloaded PDFs, such as e-checks, keyed by their download URL.
+ * <p>
+ * Files are stored once per content, named after their SHA-256, so URLs of the same document share a file. The
+ * index of URLs is kept in memory, in least recently used order, and saved to the {@code index} file on
+ * {@link #flush()}; it is checked without network access. When the files exceed the size bound, the least recently
+ * used URLs are evicted, together with the files no other URL refers to. While a {@link #hold() hold} is open, evicted
+ * files are kept until it is closed, so paths returned meanwhile stay readable, and the files may exceed the bound.
+ * Files not in the saved index, left by a crash, are removed on open, with downloads interrupted more than
+ * {@code INCOMING_TTL} ago.
+ */
+public final class PdfCache implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(PdfCache.class);
+
+    private static final int INDEX_MAGIC = 0x4F5A5043;
+
+    private static final int INDEX_VERSION = 1;
+
+    private static final String INDEX = "index";
+
+    private static final String BLOBS = "blobs";
+
+    private static final String INCOMING = "incoming";
+
+    private static final String SUFFIX = ".pdf";
+
+    private static final String PART_SUFFIX = ".part";
+
+    /**
+     * Age of interrupted downloads kept on open to be resumed.
+     */
+    private static final Duration INCOMING_TTL = Duration.ofDays(1);
+
+    private final Path directory;
+
+    private final long maxBytes;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final Map<String, Integer> references = new HashMap<>();
+
+    private final ConcurrentMap<String, Mono<Path>> inFlight = new ConcurrentHashMap<>();
+
+    private final Set<String> released = new HashSet<>();
+
+    private int holds;
+
+    private long bytes;
+
+    private long hits;
+
+    private long misses;
+
+    private long evictions;
+
+    private boolean dirty;
+
+    private PdfCache(Path directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @param maxBytes bound of the total size of the cached files
+     */
+    public static PdfCache open(Path directory, long maxBytes) throws IOException {
+        if (maxBytes <= 0) throw new IllegalArgumentException("maxBytes must be positive: " + maxBytes);
+        Files.createDirectories(directory.resolve(BLOBS));
+        Files.createDirectories(directory.resolve(INCOMING));
+        final PdfCache cache = new PdfCache(requireNonNull(directory), maxBytes);
+        cache.load();
+        return cache;
+    }
+
+    /**
+     * @return the download URL of an {@code ozon://pdf?url=...} link, or the link itself
+     */
+    static String key(URI uri) {
+        if ("ozon".equalsIgnoreCase(uri.getScheme()) && "pdf".equalsIgnoreCase(uri.getHost())) {
+            final List<String> url = new QueryStringDecoder(uri).parameters().get("url");
+            if (url != null && !url.isEmpty()) return url.get(0);
+        }
+        return uri.toString();
+    }
+
+    public synchronized boolean contains(URI uri) {
+        return entries.containsKey(key(uri));
+    }
+
+    /**
+     * @return the cached file of the link, without network access
+     */
+    public synchronized Optional<Path> get(URI uri) {
+        final Entry entry = entries.get(key(uri));
+        if (entry == null) {
+            misses++;
+            return Optional.empty();
+        }
+        hits++;
+        return Optional.of(blob(entry.sha256()));
+    }
+
+    /**
+     * Returns the cached file of the link, or downloads and caches it. Concurrent calls for the same link share one
+     * download.
+     */
+    public Mono<Path> download(Ozon ozon, URI uri) {
+        requireNonNull(ozon);
+        final String key = key(uri);
+        return Mono.defer(() -> {
+            final Optional<Path> cached = get(uri);
+            if (cached.isPresent()) return Mono.just(cached.get());
+            return inFlight.computeIfAbsent(key, k -> {
+                final Path incoming = directory.resolve(INCOMING).resolve(sha256(k) + SUFFIX);
+                return ozon.downloadTo(uri, incoming)
+                        .publishOn(Schedulers.boundedElastic())
+                        .map(result -> put(k, result))
+                        .doFinally(signal -> inFlight.remove(k))
+                        .cache();
+            });
+        });
+    }
+
+    /**
+     * Defers the deletion of evicted files until the hold is closed.
+     */
+    public synchronized Hold hold() {
+        holds++;
+        return new Hold();
+    }
+
+    public synchronized Stats stats() {
+        return new Stats(hits, misses, evictions, entries.size(), references.size(), bytes);
+    }
+
+    /**
+     * Saves the index.
+     */
+    public synchronized void flush() throws IOException {
+        if (!dirty) return;
+        final Path tmp = directory.resolve(INDEX + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(INDEX_VERSION);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                final byte[] url = e.getKey().getBytes(StandardCharsets.UTF_8);
+                out.writeInt(url.length);
+                out.write(url);
+                out.writeUTF(e.getValue().sha256());
+                out.writeLong(e.getValue().size());
+            }
+        }
+        Files.move(tmp, directory.resolve(INDEX), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        dirty = false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
+
+    /**
+     * Moves the downloaded file to its content address, unless a file with the same content is cached already.
+     */
+    private synchronized Path put(String key, OzonApi.DownloadResult result) {
+        final Path blob = blob(result.sha256());
+        try {
+            if (references.containsKey(result.sha256())) {
+                Files.delete(result.path());
+            } else {
+                Files.move(result.path(), blob, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                released.remove(result.sha256());
+            }
+            if (references.merge(result.sha256(), 1, Integer::sum) == 1) bytes += result.bytes();
+            final Entry previous = entries.put(key, new Entry(result.sha256(), result.bytes()));
+            if (previous != null) release(previous);
+            dirty = true;
+            evict(key);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return blob;
+    }
+
+    /**
+     * Evicts least recently used URLs, except the given one, until the files fit the size bound.
+     */
+    private void evict(String keep) throws IOException {
+        for (Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator(); it.hasNext() && bytes > maxBytes; ) {
+            final Map.Entry<String, Entry> e = it.next();
+            if (e.getKey().equals(keep)) continue;
+            it.remove();
+            evictions++;
+            release(e.getValue());
+        }
+    }
+
+    private void release(Entry entry) throws IOException {
+        final Integer remaining = references.merge(entry.sha256(), -1, Integer::sum);
+        if (remaining != null && remaining <= 0) {
+            references.remove(entry.sha256());
+            bytes -= entry.size();
+            if (holds > 0) {
+                released.add(entry.sha256());
+            } else {
+                Files.deleteIfExists(blob(entry.sha256()));
+            }
+        }
+    }
+
+    private Path blob(String sha256) {
+        return directory.resolve(BLOBS).resolve(sha256 + SUFFIX);
+    }
+
+    private void load() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(directory.resolve(INDEX))))) {
+            if (in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_VERSION) throw new IOException("Unknown index format");
+            final int size = in.readInt();
+            for (int i = 0; i < size; i++) {
+                final byte[] url = new byte[in.readInt()];
+                in.readFully(url);
+                final Entry entry = new Entry(in.readUTF(), in.readLong());
+                entries.put(new String(url, StandardCharsets.UTF_8), entry);
+                if (references.merge(entry.sha256(), 1, Integer::sum) == 1) bytes += entry.size();
+            }
+        } catch (NoSuchFileException e) {
+            log.debug("No index in {}", directory);
+        } catch (IOException e) {
+            log.warn("Index in {} is unreadable, the cache is cleared: {}", directory, e.toString());
+            entries.clear();
+            references.clear();
+            bytes = 0;
+        }
+        try (Stream<Path> files = Files.list(directory.resolve(BLOBS))) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                final String name = file.getFileName().toString();
+                if (!name.endsWith(SUFFIX) || !references.containsKey(name.substring(0, name.length() - SUFFIX.length()))) {
+                    Files.delete(file);
+                }
+            }
+        }
+        final FileTime stale = FileTime.from(Instant.now().minus(INCOMING_TTL));
+        try (Stream<Path> files = Files.list(directory.resolve(INCOMING))) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                // a completed download is moved to blobs, so only a recent .part file is of any use
+                if (!file.getFileName().toString().endsWith(PART_SUFFIX) || Files.getLastModifiedTime(file).compareTo(stale) < 0) {
+                    Files.delete(file);
+                }
+            }
+        }
+        entries.values().removeIf(entry -> {
+            if (Files.exists(blob(entry.sha256()))) return false;
+            final Integer remaining = references.merge(entry.sha256(), -1, Integer::sum);
+            if (remaining != null && remaining <= 0) {
+                references.remove(entry.sha256());
+                bytes -= entry.size();
+            }
+            dirty = true;
+            return true;
+        });
+    }
+
+    private static String sha256(String value) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Hold on the files of the cache, see {@link #hold()}. Closing it deletes the files evicted meanwhile, once no
+     * other hold is open.
+     */
+    public final class Hold implements AutoCloseable {
+
+        private boolean closed;
+
+        private Hold() {
+        }
+
+        @Override
+        public void close() {
+            synchronized (PdfCache.this) {
+                if (closed) return;
+                closed = true;
+                if (--holds > 0) return;
+                for (String sha256 : released) {
+                    try {
+                        Files.deleteIfExists(blob(sha256));
+                    } catch (IOException e) {
+                        log.warn("Unable to delete evicted file {}: {}", blob(sha256), e.toString());
+                    }
+                }
+                released.clear();
+            }
+        }
+    }
+
+    /**
+     * @param hits      number of lookups found in the cache
+     * @param misses    number of lookups not found in the cache
+     * @param evictions number of URLs evicted to fit the size bound
+     * @param entries   number of cached URLs
+     * @param files     number of cached files
+     * @param bytes     total size of the cached files
+     */
+    public record Stats(long hits, long misses, long evictions, int entries, int files, long bytes) {
+    }
+
+    private record Entry(String sha256, long size) {
+    }
+}
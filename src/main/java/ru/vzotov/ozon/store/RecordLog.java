@@ -0,0 +1,300 @@
+package ru.vzotov.ozon.store;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of keyed records, split into segment files.
+ * <p>
+ * A record is stored as its key length, value length and CRC32, followed by the key and the value. Putting a key again
+ * appends a new version of the record, unless its value is unchanged. The latest version of each key is found through
+ * an in-memory index, which is saved to the {@code index} file on {@link #flush()} together with the end of the log.
+ * When the log is opened, records appended after the saved end are indexed again, and a torn record at the tail, left
+ * by a crash, is truncated.
+ * <p>
+ * Records are read from memory-mapped segments.
+ */
+final class RecordLog implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(RecordLog.class);
+
+    private static final int HEADER = Integer.BYTES * 3;
+
+    private static final int INDEX_MAGIC = 0x4F5A4958;
+
+    private static final int INDEX_VERSION = 1;
+
+    private static final String INDEX = "index";
+
+    private static final Pattern SEGMENT = Pattern.compile("segment-(\\d{8})\\.log");
+
+    private final Path directory;
+
+    private final long maxSegmentBytes;
+
+    private final LinkedHashMap<String, Location> index = new LinkedHashMap<>();
+
+    private final Map<Integer, MappedByteBuffer> mapped = new HashMap<>();
+
+    private int activeSegment;
+
+    private FileChannel active;
+
+    private long activeSize;
+
+    private boolean dirty;
+
+    private RecordLog(Path directory, long maxSegmentBytes) {
+        this.directory = directory;
+        this.maxSegmentBytes = maxSegmentBytes;
+    }
+
+    static RecordLog open(Path directory, long maxSegmentBytes) throws IOException {
+        if (maxSegmentBytes <= HEADER || maxSegmentBytes > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Invalid maxSegmentBytes: " + maxSegmentBytes);
+        Files.createDirectories(directory);
+        final RecordLog recordLog = new RecordLog(directory, maxSegmentBytes);
+        recordLog.load();
+        return recordLog;
+    }
+
+    synchronized int size() {
+        return index.size();
+    }
+
+    synchronized boolean contains(String key) {
+        return index.containsKey(key);
+    }
+
+    /**
+     * @return the latest value of the key, or null
+     */
+    synchronized byte[] get(String key) throws IOException {
+        final Location location = index.get(key);
+        return location == null ? null : read(location);
+    }
+
+    /**
+     * Appends the record unless the key already has the same value.
+     *
+     * @return true if the record was appended
+     */
+    synchronized boolean put(String key, byte[] value) throws IOException {
+        final Location current = index.get(key);
+        if (current != null && current.length() == value.length && Arrays.equals(read(current), value)) {
+            return false;
+        }
+        final byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        final int recordLength = HEADER + keyBytes.length + value.length;
+        if (activeSize > 0 && activeSize + recordLength > maxSegmentBytes) {
+            roll();
+        }
+        final CRC32 crc = new CRC32();
+        crc.update(keyBytes);
+        crc.update(value);
+        final ByteBuffer record = ByteBuffer.allocate(recordLength)
+                .putInt(keyBytes.length)
+                .putInt(value.length)
+                .putInt((int) crc.getValue())
+                .put(keyBytes)
+                .put(value)
+                .flip();
+        final long offset = activeSize;
+        while (record.hasRemaining()) {
+            active.write(record, offset + record.position());
+        }
+        activeSize += recordLength;
+        index.remove(key);
+        index.put(key, new Location(activeSegment, offset, keyBytes.length, value.length));
+        dirty = true;
+        return true;
+    }
+
+    /**
+     * Calls the consumer with the latest value of every key, in the order keys were last put.
+     */
+    synchronized void forEach(BiConsumer<String, byte[]> consumer) throws IOException {
+        for (Map.Entry<String, Location> entry : index.entrySet()) {
+            consumer.accept(entry.getKey(), read(entry.getValue()));
+        }
+    }
+
+    /**
+     * Forces appended records to disk and saves the index.
+     */
+    synchronized void flush() throws IOException {
+        if (!dirty) return;
+        active.force(false);
+        final Path tmp = directory.resolve(INDEX + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(INDEX_VERSION);
+            out.writeInt(activeSegment);
+            out.writeLong(activeSize);
+            out.writeInt(index.size());
+            for (Map.Entry<String, Location> entry : index.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeInt(entry.getValue().segment());
+                out.writeLong(entry.getValue().offset());
+                out.writeInt(entry.getValue().keyLength());
+                out.writeInt(entry.getValue().length());
+            }
+        }
+        Files.move(tmp, directory.resolve(INDEX), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        dirty = false;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            mapped.clear();
+            active.close();
+        }
+    }
+
+    private byte[] read(Location location) throws IOException {
+        MappedByteBuffer buffer = mapped.get(location.segment());
+        final long end = location.offset() + HEADER + location.keyLength() + location.length();
+        if (buffer == null || buffer.capacity() < end) {
+            try (FileChannel channel = FileChannel.open(segment(location.segment()), StandardOpenOption.READ)) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            mapped.put(location.segment(), buffer);
+        }
+        final byte[] value = new byte[location.length()];
+        buffer.get((int) (location.offset() + HEADER + location.keyLength()), value);
+        return value;
+    }
+
+    private void roll() throws IOException {
+        active.force(false);
+        active.close();
+        activeSegment++;
+        active = FileChannel.open(segment(activeSegment),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        activeSize = 0;
+    }
+
+    private Path segment(int segment) {
+        return directory.resolve(String.format("segment-%08d.log", segment));
+    }
+
+    private List<Integer> segments() throws IOException {
+        final List<Integer> segments = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.forEach(file -> {
+                final Matcher m = SEGMENT.matcher(file.getFileName().toString());
+                if (m.matches()) segments.add(Integer.parseInt(m.group(1)));
+            });
+        }
+        segments.sort(null);
+        return segments;
+    }
+
+    private void load() throws IOException {
+        int segment = 0;
+        long position = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(directory.resolve(INDEX))))) {
+            if (in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_VERSION) throw new IOException("Unknown index format");
+            final int indexedSegment = in.readInt();
+            final long indexedPosition = in.readLong();
+            final int size = in.readInt();
+            for (int i = 0; i < size; i++) {
+                index.put(in.readUTF(), new Location(in.readInt(), in.readLong(), in.readInt(), in.readInt()));
+            }
+            segment = indexedSegment;
+            position = indexedPosition;
+        } catch (NoSuchFileException e) {
+            log.debug("No index in {}, scanning all segments", directory);
+        } catch (IOException e) {
+            log.warn("Index in {} is unreadable, scanning all segments: {}", directory, e.toString());
+            index.clear();
+        }
+
+        final List<Integer> segments = segments();
+        if (segments.isEmpty()) {
+            index.clear();
+            segments.add(0);
+        } else if (!segments.contains(segment)) {
+            index.clear();
+            segment = segments.get(0);
+            position = 0;
+        }
+        for (int s : segments) {
+            if (s >= segment) scan(s, s == segment ? position : 0);
+        }
+        activeSegment = segments.get(segments.size() - 1);
+        active = FileChannel.open(segment(activeSegment),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        activeSize = active.size();
+    }
+
+    /**
+     * Indexes the records of the segment starting at the position, and truncates the segment at a torn record.
+     */
+    private void scan(int segment, long from) throws IOException {
+        try (FileChannel channel = FileChannel.open(segment(segment),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final long size = channel.size();
+            final ByteBuffer header = ByteBuffer.allocate(HEADER);
+            long position = from;
+            while (position < size) {
+                header.clear();
+                if (channel.read(header, position) < HEADER) break;
+                header.flip();
+                final int keyLength = header.getInt();
+                final int length = header.getInt();
+                final int crc = header.getInt();
+                if (keyLength < 0 || length < 0 || position + HEADER + keyLength + length > size) break;
+                final ByteBuffer body = ByteBuffer.allocate(keyLength + length);
+                while (body.hasRemaining()) {
+                    if (channel.read(body, position + HEADER + body.position()) < 0) break;
+                }
+                final CRC32 actual = new CRC32();
+                actual.update(body.array());
+                if ((int) actual.getValue() != crc) break;
+                final String key = new String(body.array(), 0, keyLength, StandardCharsets.UTF_8);
+                index.remove(key);
+                index.put(key, new Location(segment, position, keyLength, length));
+                position += HEADER + keyLength + length;
+                dirty = true;
+            }
+            if (position < size) {
+                log.warn("Truncating torn record of segment {} in {} at {}", segment, directory, position);
+                channel.truncate(position);
+            }
+        }
+    }
+
+    private record Location(int segment, long offset, int keyLength, int length) {
+    }
+}
@@ -0,0 +1,142 @@
+package ru.vzotov.ozon;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import ru.vzotov.ozon.security.SecurityApi;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AuthorizationCacheTest {
+
+    private static AuthorizationCache.Session session(int n, Instant expiresAt) {
+        return new AuthorizationCache.Session(new SecurityApi.OzonAuthorization(
+                SecurityApi.OzonAuthentication.empty(),
+                new SecurityApi.FinanceAccessToken("access" + n),
+                new SecurityApi.FinanceRefreshToken("refresh" + n)
+        ), expiresAt);
+    }
+
+    private static String token(AuthorizationCache cache) {
+        return cache.session().block().authorization().financeAccessToken().value();
+    }
+
+    @Test
+    public void testLoginOnce() {
+        final AtomicInteger logins = new AtomicInteger();
+        final AuthorizationCache cache = new AuthorizationCache(
+                current -> Mono.fromSupplier(() -> session(logins.incrementAndGet(), Instant.MAX)),
+                Duration.ofMinutes(1));
+
+        assertThat(token(cache)).isEqualTo("access1");
+        assertThat(token(cache)).isEqualTo("access1");
+        assertThat(logins.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void testRefreshInBackgroundWithCurrentSession() {
+        final List<AuthorizationCache.Session> refreshed = new ArrayList<>();
+        final Sinks.One<AuthorizationCache.Session> second = Sinks.one();
+        final AuthorizationCache cache = new AuthorizationCache(
+                current -> Mono.defer(() -> {
+                    synchronized (refreshed) {
+                        refreshed.add(current);
+                        return refreshed.size() == 1 ?
+                                Mono.just(session(1, Instant.now().plusSeconds(30))) : second.asMono();
+                    }
+                }),
+                Duration.ofMinutes(1));
+
+        // the session is due for refresh, which runs in background while the current session is served
+        assertThat(token(cache)).isEqualTo("access1");
+        assertThat(token(cache)).isEqualTo("access1");
+        second.tryEmitValue(session(2, Instant.MAX));
+        assertThat(token(cache)).isEqualTo("access2");
+        synchronized (refreshed) {
+            assertThat(refreshed).hasSize(2);
+            assertThat(refreshed.get(0)).isNull();
+            assertThat(refreshed.get(1).authorization().financeRefreshToken().value()).isEqualTo("refresh1");
+        }
+        cache.dispose();
+    }
+
+    @Test
+    public void testFailedRefreshIsNotRepeatedBeforeRetryDelay() {
+        final AtomicInteger logins = new AtomicInteger();
+        final AuthorizationCache cache = new AuthorizationCache(
+                current -> logins.incrementAndGet() == 1 ?
+                        Mono.just(session(1, Instant.now().plusSeconds(30))) :
+                        Mono.error(new IllegalStateException("refresh failed")),
+                Duration.ofMinutes(1));
+
+        for (int i = 0; i < 5; i++) {
+            assertThat(token(cache)).isEqualTo("access1");
+        }
+        assertThat(logins.get()).isEqualTo(2);
+        cache.dispose();
+    }
+
+    @Test
+    public void testEmptyRefreshIsNotRepeatedBeforeRetryDelay() {
+        final AtomicInteger logins = new AtomicInteger();
+        final AuthorizationCache cache = new AuthorizationCache(
+                current -> logins.incrementAndGet() == 1 ?
+                        Mono.just(session(1, Instant.now().plusSeconds(30))) :
+                        Mono.empty(),
+                Duration.ofMinutes(1));
+
+        for (int i = 0; i < 5; i++) {
+            assertThat(token(cache)).isEqualTo("access1");
+        }
+        assertThat(logins.get()).isEqualTo(2);
+        cache.dispose();
+    }
+
+    @Test
+    public void testDisposeCancelsLogin() {
+        final AtomicBoolean cancelled = new AtomicBoolean();
+        final AuthorizationCache cache = new AuthorizationCache(
+                current -> Mono.<AuthorizationCache.Session>never().doOnCancel(() -> cancelled.set(true)),
+                Duration.ofMinutes(1));
+
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        cache.session().subscribe(session -> {}, failure::set);
+        cache.dispose();
+        assertThat(cancelled).isTrue();
+        assertThat(failure.get()).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    public void testDispose() {
+        final AuthorizationCache cache = new AuthorizationCache(
+                current -> Mono.just(session(1, Instant.now().plusSeconds(90))),
+                Duration.ofMinutes(1));
+
+        assertThat(token(cache)).isEqualTo("access1");
+        assertThat(cache.isDisposed()).isFalse();
+        cache.dispose();
+        assertThat(cache.isDisposed()).isTrue();
+        assertThat(token(cache)).isEqualTo("access1");
+    }
+
+    @Test
+    public void testFailedLoginIsRetried() {
+        final AtomicInteger logins = new AtomicInteger();
+        final AuthorizationCache cache = new AuthorizationCache(
+                current -> logins.incrementAndGet() == 1 ?
+                        Mono.error(new IllegalStateException("login failed")) :
+                        Mono.just(session(2, Instant.MAX)),
+                Duration.ofMinutes(1));
+
+        assertThat(cache.session().onErrorResume(e -> Mono.empty()).block()).isNull();
+        assertThat(token(cache)).isEqualTo("access2");
+    }
+}
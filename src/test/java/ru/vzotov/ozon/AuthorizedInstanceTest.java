@@ -0,0 +1,245 @@
+package ru.vzotov.ozon;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import ru.vzotov.ozon.model.OzonApi;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.time.Period;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static ru.vzotov.ozon.model.OzonApi.ComposerResponse.C_ORDER_LIST_APP;
+import static ru.vzotov.ozon.model.OzonApi.ComposerResponse.C_SELLER_PRODUCTS;
+import static ru.vzotov.ozon.model.OzonApi.ComposerResponse.C_SHIPMENT_WIDGET;
+
+public class AuthorizedInstanceTest {
+
+    private final OzonServer server = new OzonServer();
+
+    private final Map<String, String> checkpoints = new ConcurrentHashMap<>();
+
+    private final CheckpointStore checkpointStore = new CheckpointStore() {
+        @Override
+        public Mono<String> load(String stream) {
+            return Mono.fromSupplier(() -> checkpoints.get(stream));
+        }
+
+        @Override
+        public Mono<Void> save(String stream, String checkpoint) {
+            return Mono.fromRunnable(() -> checkpoints.put(stream, checkpoint));
+        }
+
+        @Override
+        public Mono<Void> clear(String stream) {
+            return Mono.fromRunnable(() -> checkpoints.remove(stream));
+        }
+    };
+
+    @AfterEach
+    public void stop() {
+        server.close();
+    }
+
+    private static String order(String number, String date) {
+        return """
+                {"header": {"title": "Заказ от %s", "number": "%s"}, "sections": []}""".formatted(date, number);
+    }
+
+    private static String orders(String... orders) {
+        return "{\"orderListApp\": [" + String.join(",", orders) + "]}";
+    }
+
+    private static OzonApi.ClientOperation operation(LocalDate date, int hour) {
+        final String id = date + "T" + hour;
+        return new OzonApi.ClientOperation(id, id, "purpose", OffsetDateTime.of(date, LocalTime.of(hour, 0), ZoneOffset.UTC),
+                null, null, "merchant", null, "type", "status", null, null, null, 100L, null, null);
+    }
+
+    private static OzonApi.ClientOperationsRequest operationsRequest(LocalDate from, LocalDate to) {
+        return new OzonApi.ClientOperationsRequest(new OzonApi.Cursors(),
+                new OzonApi.ClientOperationsFilter(List.of(), new OzonApi.DateRange(from, to),
+                        OzonApi.ClientOperationsFilter.EFFECT_UNKNOWN), 1, 50);
+    }
+
+    private static String postingLink(String number, int posting) {
+        return "ozon://my/orderDetailsPosting?order=%s&posting=%d".formatted(number, posting);
+    }
+
+    private void details(String number, int postings) {
+        final StringBuilder items = new StringBuilder();
+        for (int i = 1; i <= postings; i++) {
+            if (i > 1) items.append(',');
+            items.append("""
+                    {"title": "Отправление %d", "products": [], "action": {"behavior": "deeplink", "link": "%s"}}"""
+                    .formatted(i, postingLink(number, i)));
+            server.page(postingLink(number, i).substring("ozon:/".length()), C_SELLER_PRODUCTS, """
+                    {"header": {"id": "%s-%d", "type": "list", "title": "Товары"}, "items": []}""".formatted(number, i), null);
+        }
+        server.page("/my/orderDetails/?order=" + number, C_SHIPMENT_WIDGET, """
+                {"id": "shipment", "items": [{"type": "postings", "postings": {"postings": [%s]}}]}""".formatted(items), null);
+    }
+
+    @Test
+    public void testOrderGraphHasDetailsAndPostings() {
+        details("100", 2);
+        final OzonApi.OrderGraph graph = server.instance(null)
+                .orderGraph(new OzonApi.Order(new OzonApi.Order.Header("Заказ от 1 июня 2023", "100"), null, List.of()), 2)
+                .block();
+        assertThat(graph.details()).singleElement()
+                .satisfies(page -> assertThat(page.findPostings()).hasSize(1));
+        assertThat(graph.postings()).extracting(posting -> ((OzonApi.SellerProductsList) posting.sellerProducts()).header().id())
+                .containsExactly("100-1", "100-2");
+    }
+
+    @Test
+    public void testOrderGraphsKeepListOrderAndTolerateMissingDetails() {
+        server.page("/my/orderlist", C_ORDER_LIST_APP,
+                orders(order("300", "3 июня 2023"), order("200", "2 июня 2023")), "/my/orderlist?page=2");
+        server.page("/my/orderlist?page=2", C_ORDER_LIST_APP, orders(order("100", "1 июня 2023")), null);
+        details("300", 1);
+        server.page("/my/orderDetails/?order=200", C_SHIPMENT_WIDGET, "{\"id\": \"shipment\", \"items\": []}", null);
+        details("100", 2);
+
+        final List<OzonApi.OrderGraph> graphs = server.instance(null)
+                .orderGraphs(OzonApi.OrderListFilter.ALL, 2)
+                .collectList()
+                .block();
+        assertThat(graphs).extracting(graph -> graph.order().number()).containsExactly("300", "200", "100");
+        assertThat(graphs).extracting(graph -> graph.postings().size()).containsExactly(1, 0, 2);
+        assertThat(graphs.get(1).details()).singleElement()
+                .satisfies(page -> assertThat(page.findPostings()).isEmpty());
+    }
+
+    @Test
+    public void testOrderGraphsSinceCutoff() {
+        server.page("/my/orderlist", C_ORDER_LIST_APP,
+                orders(order("300", "3 июня 2023"), order("200", "2 июня 2023")), "/my/orderlist?page=2");
+        server.page("/my/orderlist?page=2", C_ORDER_LIST_APP, orders(order("100", "1 мая 2023")), null);
+        details("300", 2);
+        details("200", 1);
+
+        final List<OzonApi.OrderGraph> graphs = server.instance(null)
+                .orderGraphs(OzonApi.OrderListFilter.ALL, LocalDate.of(2023, 6, 2), 2)
+                .collectList()
+                .block();
+        assertThat(graphs).extracting(graph -> graph.order().number()).containsExactly("300", "200");
+        assertThat(graphs).extracting(graph -> graph.postings().size()).containsExactly(2, 1);
+        assertThat(server.requested()).doesNotContain("/my/orderDetails/?order=100");
+    }
+
+    @Test
+    public void testOrdersAreRequestedWithSort() {
+        server.page("/my/orderlist", C_ORDER_LIST_APP, orders(order("100", "1 июня 2023")), null);
+        server.page("/my/orderlist?sort=3", C_ORDER_LIST_APP, orders(order("200", "2 июня 2023")), null);
+
+        assertThat(server.instance(null).orders(OzonApi.OrderListFilter.ALL).blockLast().items())
+                .extracting(OzonApi.Order::number).containsExactly("100");
+        assertThat(server.instance(null).orders(OzonApi.OrderListFilter.COMPLETED).blockLast().items())
+                .extracting(OzonApi.Order::number).containsExactly("200");
+        assertThat(server.requested()).containsExactly("/my/orderlist", "/my/orderlist?sort=3");
+    }
+
+    @Test
+    public void testOrdersStopAtCutoff() {
+        server.page("/my/orderlist", C_ORDER_LIST_APP,
+                orders(order("400", "4 июня 2023"), "{\"sections\": []}"), "/my/orderlist?page=2");
+        server.page("/my/orderlist?page=2", C_ORDER_LIST_APP,
+                orders(order("300", "3 июня 2023"), order("200", "31 мая 2023")), "/my/orderlist?page=3");
+        server.page("/my/orderlist?page=3", C_ORDER_LIST_APP, orders(order("100", "1 мая 2023")), null);
+
+        final List<OzonApi.Order> orders = server.instance(null)
+                .orders(OzonApi.OrderListFilter.ALL, LocalDate.of(2023, 6, 1))
+                .concatMapIterable(OzonApi.OrderList::items)
+                .collectList()
+                .block();
+        assertThat(orders).extracting(OzonApi.Order::date)
+                .containsExactly(LocalDate.of(2023, 6, 4), LocalDate.MIN, LocalDate.of(2023, 6, 3));
+        assertThat(server.requested()).containsExactly("/my/orderlist", "/my/orderlist?page=2");
+    }
+
+    @Test
+    public void testShardedOperationsAreNewestFirst() {
+        server.clientOperations(request -> {
+            final LocalDate date = request.filter().date().from();
+            return request.cursors().next() == null ?
+                    new OzonApi.ClientOperations(new OzonApi.Cursors("2", null), true,
+                            List.of(operation(date, 20), operation(date, 16))) :
+                    new OzonApi.ClientOperations(new OzonApi.Cursors(), false,
+                            List.of(operation(date, 12), operation(date, 8)));
+        });
+
+        final List<OzonApi.ClientOperation> operations = server.instance(null)
+                .clientOperations(operationsRequest(LocalDate.of(2023, 6, 1), LocalDate.of(2023, 6, 3)), Period.ofDays(1), 2)
+                .collectList()
+                .block();
+        assertThat(operations).extracting(OzonApi.ClientOperation::operationId).containsExactly(
+                "2023-06-03T20", "2023-06-03T16", "2023-06-03T12", "2023-06-03T8",
+                "2023-06-02T20", "2023-06-02T16", "2023-06-02T12", "2023-06-02T8",
+                "2023-06-01T20", "2023-06-01T16", "2023-06-01T12", "2023-06-01T8");
+        assertThat(server.operationRequests()).extracting(request -> request.filter().date())
+                .allMatch(range -> range.from().equals(range.to()));
+    }
+
+    @Test
+    public void testShardParallelismMustBePositive() {
+        assertThatThrownBy(() -> server.instance(null).clientOperations(
+                operationsRequest(LocalDate.of(2023, 6, 1), LocalDate.of(2023, 6, 3)), Period.ofDays(1), 0))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void testFailedStreamResumesFromCheckpoint() {
+        final LocalDate since = LocalDate.of(2023, 5, 1);
+        server.page("/my/orderlist", C_ORDER_LIST_APP, orders(order("300", "3 июня 2023")), "/my/orderlist?page=2");
+        final OzonBuilder.AuthorizedInstance ozon = server.instance(checkpointStore);
+
+        assertThatThrownBy(() -> ozon.orders(OzonApi.OrderListFilter.ALL, since).blockLast())
+                .isInstanceOf(OzonHttpException.class);
+        assertThat(checkpoints.values()).containsExactly("/my/orderlist");
+
+        server.page("/my/orderlist?page=2", C_ORDER_LIST_APP, orders(order("200", "2 июня 2023")), null);
+        server.requested().clear();
+        final List<OzonApi.OrderList> pages = ozon.orders(OzonApi.OrderListFilter.ALL, since).collectList().block();
+        assertThat(pages).hasSize(2);
+        assertThat(server.requested()).containsExactly("/my/orderlist", "/my/orderlist?page=2");
+        assertThat(checkpoints).isEmpty();
+    }
+
+    @Test
+    public void testStreamsWithOtherCutoffDoNotResume() {
+        server.page("/my/orderlist", C_ORDER_LIST_APP, orders(order("300", "3 июня 2023")), "/my/orderlist?page=2");
+        final OzonBuilder.AuthorizedInstance ozon = server.instance(checkpointStore);
+        assertThatThrownBy(() -> ozon.orders(OzonApi.OrderListFilter.ALL, LocalDate.of(2023, 5, 1)).blockLast())
+                .isInstanceOf(OzonHttpException.class);
+        checkpoints.replaceAll((stream, checkpoint) -> "/my/orderlist?page=2");
+
+        server.page("/my/orderlist?page=2", C_ORDER_LIST_APP, orders(order("200", "2 июня 2023")), null);
+        server.requested().clear();
+        assertThat(ozon.orders(OzonApi.OrderListFilter.ALL, LocalDate.of(2023, 4, 1)).collectList().block()).hasSize(2);
+        assertThat(server.requested()).containsExactly("/my/orderlist", "/my/orderlist?page=2");
+        assertThat(checkpoints).hasSize(1);
+    }
+
+    @Test
+    public void testCancelledStreamResumesFromCheckpoint() {
+        server.page("/my/orderlist", C_ORDER_LIST_APP, orders(order("300", "3 июня 2023")), "/my/orderlist?page=2");
+        server.page("/my/orderlist?page=2", C_ORDER_LIST_APP, orders(order("200", "2 июня 2023")), "/my/orderlist?page=3");
+        server.page("/my/orderlist?page=3", C_ORDER_LIST_APP, orders(order("100", "1 июня 2023")), null);
+        final OzonBuilder.AuthorizedInstance ozon = server.instance(checkpointStore);
+
+        assertThat(ozon.orders(OzonApi.OrderListFilter.ALL).take(2).collectList().block()).hasSize(2);
+        assertThat(checkpoints.values()).containsExactly("/my/orderlist?page=2");
+
+        assertThat(ozon.orders(OzonApi.OrderListFilter.ALL).collectList().block())
+                .extracting(list -> list.items().get(0).number()).containsExactly("200", "100");
+        assertThat(checkpoints).isEmpty();
+    }
+}
@@ -0,0 +1,36 @@
+package ru.vzotov.ozon;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class DeadlinesTest {
+
+    @Test
+    public void testRequestDeadlineCancelsRequest() {
+        final AtomicBoolean cancelled = new AtomicBoolean();
+        final Deadlines deadlines = new Deadlines(Map.of(OzonBuilder.Endpoint.PAGE, Duration.ofMillis(50)), null);
+        assertThatThrownBy(() -> deadlines.apply(OzonBuilder.Endpoint.PAGE, Mono.never().doOnCancel(() -> cancelled.set(true))).block())
+                .hasCauseInstanceOf(TimeoutException.class);
+        assertThat(cancelled).isTrue();
+        assertThat(deadlines.apply(OzonBuilder.Endpoint.DOWNLOAD, Mono.just("ok")).block()).isEqualTo("ok");
+    }
+
+    @Test
+    public void testStreamDeadlineSpansAllPages() {
+        final Deadlines deadlines = new Deadlines(Map.of(), Duration.ofMillis(300));
+        final Flux<Long> pages = Flux.interval(Duration.ofMillis(100));
+        final long started = System.nanoTime();
+        assertThatThrownBy(() -> deadlines.stream(pages).blockLast())
+                .hasCauseInstanceOf(TimeoutException.class);
+        assertThat(Duration.ofNanos(System.nanoTime() - started)).isLessThan(Duration.ofSeconds(2));
+    }
+}
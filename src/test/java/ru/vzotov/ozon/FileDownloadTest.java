@@ -0,0 +1,114 @@
+package ru.vzotov.ozon;
+
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.http.server.HttpServer;
+import ru.vzotov.ozon.model.OzonApi;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FileDownloadTest {
+
+    private static final byte[] CONTENT = new byte[300_000];
+
+    static {
+        new Random(42).nextBytes(CONTENT);
+    }
+
+    @TempDir
+    Path directory;
+
+    private DisposableServer server;
+
+    @BeforeEach
+    public void start() {
+        server = HttpServer.create()
+                .port(0)
+                .route(routes -> routes
+                        .get("/ranged", (req, res) -> {
+                            final String range = req.requestHeaders().get(HttpHeaderNames.RANGE);
+                            if (range == null) return res.sendByteArray(Mono.just(CONTENT));
+                            final int from = Integer.parseInt(range.substring("bytes=".length(), range.length() - 1));
+                            return res.status(HttpResponseStatus.PARTIAL_CONTENT)
+                                    .header(HttpHeaderNames.CONTENT_RANGE, "bytes " + from + "-" + (CONTENT.length - 1) + "/" + CONTENT.length)
+                                    .sendByteArray(Mono.just(Arrays.copyOfRange(CONTENT, from, CONTENT.length)));
+                        })
+                        .get("/whole", (req, res) -> res.sendByteArray(Mono.just(CONTENT))))
+                .bindNow();
+    }
+
+    @AfterEach
+    public void stop() {
+        server.disposeNow();
+    }
+
+    private OzonApi.DownloadResult download(String path, Path target) throws IOException {
+        final FileDownload download = FileDownload.open(target);
+        try {
+            return HttpClient.create()
+                    .baseUrl("http://127.0.0.1:" + server.port())
+                    .doOnRequest((req, conn) -> {
+                        final String range = download.range();
+                        if (range != null) req.header(HttpHeaderNames.RANGE, range);
+                    })
+                    .get().uri(path)
+                    .response(download::receive)
+                    .then(Mono.fromCallable(download::complete))
+                    .block();
+        } finally {
+            download.close();
+        }
+    }
+
+    private static String sha256(byte[] content) throws NoSuchAlgorithmException {
+        return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+    }
+
+    @Test
+    public void testDownloadIsMovedToTarget() throws Exception {
+        final Path target = directory.resolve("check.pdf");
+        final OzonApi.DownloadResult result = download("/ranged", target);
+        assertThat(Files.readAllBytes(target)).isEqualTo(CONTENT);
+        assertThat(target.resolveSibling("check.pdf.part")).doesNotExist();
+        assertThat(result.bytes()).isEqualTo(CONTENT.length);
+        assertThat(result.transferred()).isEqualTo(CONTENT.length);
+        assertThat(result.sha256()).isEqualTo(sha256(CONTENT));
+        assertThat(result.throughput()).isPositive();
+    }
+
+    @Test
+    public void testPartialDownloadIsResumed() throws Exception {
+        final Path target = directory.resolve("check.pdf");
+        Files.write(target.resolveSibling("check.pdf.part"), Arrays.copyOf(CONTENT, 100_000));
+        final OzonApi.DownloadResult result = download("/ranged", target);
+        assertThat(Files.readAllBytes(target)).isEqualTo(CONTENT);
+        assertThat(result.transferred()).isEqualTo(CONTENT.length - 100_000);
+        assertThat(result.sha256()).isEqualTo(sha256(CONTENT));
+    }
+
+    @Test
+    public void testIgnoredRangeRestartsDownload() throws Exception {
+        final Path target = directory.resolve("check.pdf");
+        Files.write(target.resolveSibling("check.pdf.part"), new byte[100_000]);
+        final OzonApi.DownloadResult result = download("/whole", target);
+        assertThat(Files.readAllBytes(target)).isEqualTo(CONTENT);
+        assertThat(result.bytes()).isEqualTo(CONTENT.length);
+        assertThat(result.sha256()).isEqualTo(sha256(CONTENT));
+    }
+}
@@ -0,0 +1,85 @@
+package ru.vzotov.ozon;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.UnaryOperator;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class HedgingTest {
+
+    private static void warmUp(Hedging hedging) {
+        for (int i = 0; i < 20; i++) {
+            hedging.earn();
+            hedging.record(Duration.ofMillis(30).toNanos());
+        }
+    }
+
+    /**
+     * The first attempt hangs, the following ones answer immediately.
+     */
+    private static Mono<Integer> slowFirst(AtomicInteger attempts) {
+        return Mono.defer(() -> {
+            final int attempt = attempts.incrementAndGet();
+            return attempt == 1 ? Mono.never() : Mono.just(attempt);
+        });
+    }
+
+    @Test
+    public void testSlowRequestIsHedged() {
+        final Hedging hedging = new Hedging(0.9, 1);
+        warmUp(hedging);
+
+        final AtomicInteger attempts = new AtomicInteger();
+        assertThat(hedging.apply(slowFirst(attempts)).block(Duration.ofSeconds(5))).isEqualTo(2);
+    }
+
+    @Test
+    public void testHedgeDelayStartsAfterAdmission() {
+        final Hedging hedging = new Hedging(0.9, 1);
+        final AtomicInteger admissions = new AtomicInteger();
+        final UnaryOperator<Mono<Integer>> admission = attempt -> Mono.defer(() -> {
+            admissions.incrementAndGet();
+            return Mono.delay(Duration.ofMillis(50)).then(attempt);
+        });
+        for (int i = 0; i < 20; i++) {
+            assertThat(hedging.apply(Mono.just(i), admission).block(Duration.ofSeconds(5))).isEqualTo(i);
+        }
+        assertThat(hedging.earn()).isLessThan(Duration.ofMillis(50).toNanos());
+
+        admissions.set(0);
+        assertThat(hedging.apply(Mono.just(-1), admission).block(Duration.ofSeconds(5))).isEqualTo(-1);
+        assertThat(admissions).hasValue(1);
+
+        admissions.set(0);
+        final AtomicInteger attempts = new AtomicInteger();
+        assertThat(hedging.apply(slowFirst(attempts), admission).block(Duration.ofSeconds(5))).isEqualTo(2);
+        assertThat(admissions).hasValue(2);
+    }
+
+    @Test
+    public void testNoHedgeBeforeLatenciesAreKnown() throws InterruptedException {
+        final Hedging hedging = new Hedging(0.9, 1);
+        assertThat(attemptsAfter(hedging, 200)).isEqualTo(1);
+    }
+
+    @Test
+    public void testHedgeRateIsCapped() throws InterruptedException {
+        final Hedging hedging = new Hedging(0.9, 0.01);
+        warmUp(hedging);
+
+        assertThat(attemptsAfter(hedging, 200)).isEqualTo(1);
+    }
+
+    private static int attemptsAfter(Hedging hedging, long millis) throws InterruptedException {
+        final AtomicInteger attempts = new AtomicInteger();
+        final Disposable request = hedging.apply(slowFirst(attempts)).subscribe();
+        Thread.sleep(millis);
+        request.dispose();
+        return attempts.get();
+    }
+}
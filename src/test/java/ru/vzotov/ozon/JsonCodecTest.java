@@ -0,0 +1,80 @@
+package ru.vzotov.ozon;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.netty.ByteBufFlux;
+import ru.vzotov.ozon.model.OzonApi;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static ru.vzotov.ozon.model.OzonApi.ComposerResponse.C_CHEQUES;
+
+public class JsonCodecTest {
+
+    private static final String LAYOUT = """
+            "layout": [
+              {"component": "cheques", "stateId": "cheques-1"},
+              {"component": "banner", "stateId": "banner-1"}
+            ]""";
+
+    private static final String WIDGET_STATES = """
+            "widgetStates": {
+              "banner-1": "{\\"title\\":\\"ignored\\"}",
+              "cheques-1": "{\\"title\\":\\"Чеки\\",\\"cheques\\":[]}"
+            }""";
+
+    private static final String NON_STRING_WIDGET_STATES = """
+            "widgetStates": {
+              "cheques-0": {"title": "object"},
+              "cheques-1": ["array"],
+              "banner-1": null
+            }""";
+
+    private final JsonCodec codec = new JsonCodec(new ObjectMapper()
+            .findAndRegisterModules()
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES));
+
+    @Test
+    public void testFilteredWidgetStates() {
+        final OzonApi.ComposerResponse response = decode("{" + LAYOUT + "," + WIDGET_STATES + ", \"nextPage\": \"/next\"}");
+        assertThat(response.widgetStates()).containsOnlyKeys("cheques-1");
+        assertThat(response.nextPage()).isEqualTo("/next");
+    }
+
+    @Test
+    public void testFilteredWidgetStatesBeforeLayout() {
+        final OzonApi.ComposerResponse response = decode("{" + WIDGET_STATES + "," + LAYOUT + "}");
+        assertThat(response.widgetStates()).containsOnlyKeys("cheques-1");
+        assertThat(response.layout()).hasSize(2);
+    }
+
+    @Test
+    public void testWidgetStateDecodedOnce() throws Exception {
+        final OzonApi.ComposerResponse response = decode("{" + LAYOUT + "," + WIDGET_STATES + "}");
+        final Set<OzonApi.EChecks> first = response.widgetState(C_CHEQUES, OzonApi.EChecks.class, codec::fromJson);
+        final Set<OzonApi.EChecks> second = response.widgetState(C_CHEQUES, OzonApi.EChecks.class, codec::fromJson);
+        assertThat(first).singleElement().extracting(OzonApi.EChecks::title).isEqualTo("Чеки");
+        assertThat(second).isSameAs(first);
+    }
+
+    @Test
+    public void testNonStringWidgetStatesSkipped() {
+        final OzonApi.ComposerResponse response = decode("{" + LAYOUT + "," + NON_STRING_WIDGET_STATES + ", \"nextPage\": \"/next\"}");
+        assertThat(response.widgetStates()).isEmpty();
+        assertThat(response.nextPage()).isEqualTo("/next");
+    }
+
+    private OzonApi.ComposerResponse decode(String json) {
+        final ByteBuf buf = Unpooled.copiedBuffer(json, StandardCharsets.UTF_8);
+        final OzonApi.ComposerResponse response = codec.fromComposerJson(
+                ByteBufFlux.fromInbound(Mono.just(buf)).aggregate(), Set.of(C_CHEQUES)).block();
+        assertThat(buf.release()).isTrue();
+        return response;
+    }
+}
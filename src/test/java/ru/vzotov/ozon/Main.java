@@ -5,7 +5,6 @@ import io.netty.handler.logging.LogLevel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import reactor.core.publisher.Mono;
-import reactor.netty.ByteBufFlux;
 import reactor.netty.transport.logging.AdvancedByteBufFormat;
 import ru.vzotov.ozon.model.OzonApi;
 import ru.vzotov.ozon.model.OzonApi.ClientOperations;
@@ -21,11 +20,8 @@ import ru.vzotov.ozon.security.SecurityApi.PinCode;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.net.URI;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
 import java.time.YearMonth;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -82,14 +78,8 @@ public class Main {
                 .map(URI::create)
                 .ifPresent(uri -> {
                     log.info("Downloading PDF from {}", uri);
-                    final byte[] bytes = Objects.requireNonNull(
-                            ByteBufFlux.fromInbound(ozon.download(uri)).aggregate().asByteArray().block()
-                    );
-                    try (final OutputStream out = Files.newOutputStream(Path.of("output.pdf"), StandardOpenOption.CREATE)) {
-                        out.write(bytes);
-                    } catch (IOException e) {
-                        throw new RuntimeException(e);
-                    }
+                    final OzonApi.DownloadResult result = ozon.downloadTo(uri, Path.of("output.pdf")).block();
+                    log.info("Downloaded {}", result);
                 });
 
         /* */
@@ -98,6 +88,7 @@ public class Main {
 
     private static Ozon buildOzon(OzonAuthentication auth, PinCode pinCode) {
         return new OzonBuilder()
+                .compression(true)
                 .httpClient(http -> http
                         .wiretap("reactor.netty.http.client.HttpClient",
                                 LogLevel.DEBUG, AdvancedByteBufFormat.TEXTUAL))
@@ -174,14 +165,8 @@ public class Main {
                             .map(URI::create)
                             .ifPresent(uri -> {
                                 log.info("Downloading PDF from {}", uri);
-                                final byte[] bytes = Objects.requireNonNull(
-                                        ByteBufFlux.fromInbound(ozon.download(uri)).aggregate().asByteArray().block()
-                                );
-                                try (final OutputStream out = Files.newOutputStream(Path.of("output.pdf"), StandardOpenOption.CREATE)) {
-                                    out.write(bytes);
-                                } catch (IOException e) {
-                                    throw new RuntimeException(e);
-                                }
+                                final OzonApi.DownloadResult result = ozon.downloadTo(uri, Path.of("output.pdf")).block();
+                                log.info("Downloaded {}", result);
                             });
                 });
     }
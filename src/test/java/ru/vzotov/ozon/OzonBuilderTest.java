@@ -0,0 +1,59 @@
+package ru.vzotov.ozon;
+
+import io.netty.handler.codec.compression.Brotli;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import org.junit.jupiter.api.Test;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class OzonBuilderTest {
+
+    @Test
+    public void testSuppliedConnectionProviderIsUsed() {
+        final ConnectionProvider provider = OzonBuilder.connectionPool("ozon-test", 4, -1,
+                Duration.ofSeconds(30), Duration.ofMinutes(5));
+        final OzonRuntime runtime = OzonRuntime.builder().name("ozon-test-runtime").workerCount(1).build();
+        try {
+            final HttpClient client = new OzonBuilder().runtime(runtime).connectionProvider(provider).createHttpClient();
+            assertThat(client.configuration().connectionProvider()).isSameAs(provider);
+            assertThat(client.configuration().loopResources()).isSameAs(runtime.loopResources());
+            assertThat(provider.maxConnections()).isEqualTo(4);
+        } finally {
+            provider.disposeLater().block();
+            runtime.disposeLater().block();
+        }
+    }
+
+    @Test
+    public void testConnectionPoolMustHaveConnections() {
+        assertThatThrownBy(() -> OzonBuilder.connectionPool("ozon-test", 0, -1, Duration.ofSeconds(30), Duration.ofMinutes(5)))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void testHttp2IsNegotiated() {
+        assertThat(new OzonBuilder().createHttpClient().configuration().protocols())
+                .containsExactly(HttpProtocol.HTTP11);
+        assertThat(new OzonBuilder().http2(true).createHttpClient().configuration().protocols())
+                .containsExactlyInAnyOrder(HttpProtocol.H2, HttpProtocol.HTTP11);
+    }
+
+    @Test
+    public void testCompressionIsAccepted() {
+        final HttpClient plain = new OzonBuilder().createHttpClient();
+        assertThat(plain.configuration().isAcceptGzip()).isFalse();
+        assertThat(plain.configuration().headers().contains(HttpHeaderNames.ACCEPT_ENCODING)).isFalse();
+
+        final HttpClient compressed = new OzonBuilder().compression(true).createHttpClient();
+        assertThat(compressed.configuration().isAcceptGzip()).isTrue();
+        if (Brotli.isAvailable()) {
+            assertThat(compressed.configuration().headers().get(HttpHeaderNames.ACCEPT_ENCODING)).isEqualTo("br, gzip, deflate");
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package ru.vzotov.ozon;
+
+import org.junit.jupiter.api.Test;
+import ru.vzotov.ozon.model.OzonApi;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class OzonPageCacheTest {
+
+    private static final Set<String> COMPONENTS = Set.of(OzonApi.ComposerResponse.C_CHEQUES);
+
+    private static OzonApi.ComposerResponse page(int stateLength) {
+        return new OzonApi.ComposerResponse(List.of(), Map.of("cheques-1", "x".repeat(stateLength)),
+                null, null, null, null, null, null, null, null, null);
+    }
+
+    @Test
+    public void testOnlyMatchingPagesAreCached() {
+        final OzonPageCache cache = OzonPageCache.builder(1 << 20)
+                .ttl("/my/e-check\\?archive=1.*", Duration.ofHours(1))
+                .build();
+        final OzonApi.ComposerResponse checks = page(10);
+
+        assertThat(cache.get("user", "/my/e-check?archive=1", COMPONENTS)).isNull();
+        cache.put("user", "/my/e-check?archive=1", COMPONENTS, checks);
+        cache.put("user", "/my/orderlist", COMPONENTS, page(10));
+
+        assertThat(cache.get("user", "/my/e-check?archive=1", COMPONENTS)).isSameAs(checks);
+        assertThat(cache.get("other", "/my/e-check?archive=1", COMPONENTS)).isNull();
+        assertThat(cache.get("user", "/my/orderlist", COMPONENTS)).isNull();
+        assertThat(cache.stats().hits()).isEqualTo(1);
+        assertThat(cache.stats().misses()).isEqualTo(3);
+        assertThat(cache.stats().entries()).isEqualTo(1);
+    }
+
+    @Test
+    public void testRarePageDoesNotEvictFrequentOne() {
+        final long weight = OzonPageCache.weight(page(1000));
+        final OzonPageCache cache = OzonPageCache.builder(weight + weight / 2)
+                .ttl(".*", Duration.ofHours(1))
+                .build();
+        final OzonApi.ComposerResponse frequent = page(1000);
+        cache.put("user", "/frequent", COMPONENTS, frequent);
+        for (int i = 0; i < 5; i++) cache.get("user", "/frequent", COMPONENTS);
+
+        cache.get("user", "/rare", COMPONENTS);
+        cache.put("user", "/rare", COMPONENTS, page(1000));
+        assertThat(cache.get("user", "/frequent", COMPONENTS)).isSameAs(frequent);
+        assertThat(cache.stats().rejections()).isEqualTo(1);
+
+        for (int i = 0; i < 10; i++) cache.get("user", "/popular", COMPONENTS);
+        final OzonApi.ComposerResponse popular = page(1000);
+        cache.put("user", "/popular", COMPONENTS, popular);
+        assertThat(cache.get("user", "/popular", COMPONENTS)).isSameAs(popular);
+        assertThat(cache.stats().evictions()).isEqualTo(1);
+        assertThat(cache.stats().bytes()).isEqualTo(weight);
+    }
+
+    @Test
+    public void testDecodedStatesAreCounted() {
+        final OzonApi.ComposerResponse referenced = new OzonApi.ComposerResponse(
+                List.of(new OzonApi.ComposerResponse.Component(OzonApi.ComposerResponse.C_CHEQUES, null, "cheques-1",
+                        null, null, null, null, null, null, null, null)),
+                Map.of("cheques-1", "x".repeat(1000)), null, null, null, null, null, null, null, null, null);
+
+        assertThat(OzonPageCache.weight(referenced)).isGreaterThanOrEqualTo(OzonPageCache.weight(page(1000)) + 2 * 1000);
+    }
+}
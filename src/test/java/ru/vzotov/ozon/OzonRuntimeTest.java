@@ -0,0 +1,38 @@
+package ru.vzotov.ozon;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class OzonRuntimeTest {
+
+    @Test
+    public void testResourcesAreSharedByBuildersAndDisposed() {
+        final OzonRuntime runtime = OzonRuntime.builder().name("ozon-test").workerCount(1).build();
+        try {
+            final HttpClient first = new OzonBuilder().runtime(runtime).createHttpClient();
+            final HttpClient second = new OzonBuilder().runtime(runtime).createHttpClient();
+            assertThat(first.configuration().connectionProvider())
+                    .isSameAs(second.configuration().connectionProvider())
+                    .isSameAs(runtime.connectionProvider());
+            assertThat(first.configuration().loopResources())
+                    .isSameAs(second.configuration().loopResources())
+                    .isSameAs(runtime.loopResources());
+            assertThat(OzonRuntime.RESPONSE_TYPES).allMatch(runtime.codec()::hasReader);
+            final Ozon ozon = new OzonBuilder().runtime(runtime).authorize(Mono.empty(), Mono.empty());
+            final Ozon other = new OzonBuilder().runtime(runtime).authorize(Mono.empty(), Mono.empty());
+            assertThat(((OzonBuilder.AuthorizedInstance) ozon).codec())
+                    .isSameAs(((OzonBuilder.AuthorizedInstance) other).codec())
+                    .isSameAs(runtime.codec());
+            ozon.dispose();
+            other.dispose();
+            assertThat(runtime.isDisposed()).isFalse();
+        } finally {
+            runtime.disposeLater().block();
+        }
+        assertThat(runtime.connectionProvider().isDisposed()).isTrue();
+        assertThat(runtime.loopResources().isDisposed()).isTrue();
+    }
+}
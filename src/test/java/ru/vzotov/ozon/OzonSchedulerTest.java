@@ -0,0 +1,72 @@
+package ru.vzotov.ozon;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class OzonSchedulerTest {
+
+    private final List<String> started = new ArrayList<>();
+
+    private Sinks.Empty<Void> submit(OzonScheduler scheduler, String account, String name) {
+        final Sinks.Empty<Void> done = Sinks.empty();
+        scheduler.schedule(account, Mono.defer(() -> {
+            started.add(name);
+            return done.asMono();
+        })).subscribe();
+        return done;
+    }
+
+    @Test
+    public void testRoundRobinAcrossAccounts() {
+        final OzonScheduler scheduler = new OzonScheduler(1, 1);
+        final Sinks.Empty<Void> a1 = submit(scheduler, "a", "a1");
+        final Sinks.Empty<Void> a2 = submit(scheduler, "a", "a2");
+        submit(scheduler, "a", "a3");
+        final Sinks.Empty<Void> b1 = submit(scheduler, "b", "b1");
+
+        assertThat(started).containsExactly("a1");
+        assertThat(scheduler.stats().queuedByAccount()).isEqualTo(Map.of("a", 2, "b", 1));
+
+        a1.tryEmitEmpty();
+        b1.tryEmitEmpty();
+        a2.tryEmitEmpty();
+        assertThat(started).containsExactly("a1", "b1", "a2", "a3");
+        assertThat(scheduler.stats().inFlight()).isEqualTo(1);
+        assertThat(scheduler.stats().granted()).isEqualTo(4);
+    }
+
+    @Test
+    public void testPerAccountBudget() {
+        final OzonScheduler scheduler = new OzonScheduler(3, 2);
+        submit(scheduler, "a", "a1");
+        submit(scheduler, "a", "a2");
+        submit(scheduler, "a", "a3");
+        submit(scheduler, "b", "b1");
+
+        assertThat(started).containsExactly("a1", "a2", "b1");
+        assertThat(scheduler.stats().queued()).isEqualTo(1);
+    }
+
+    @Test
+    public void testCancelledRequestLeavesQueue() {
+        final OzonScheduler scheduler = new OzonScheduler(1, 1);
+        final Sinks.Empty<Void> a1 = submit(scheduler, "a", "a1");
+        final Disposable waiting = scheduler.schedule("b", Mono.fromRunnable(() -> started.add("b1"))).subscribe();
+        assertThat(scheduler.stats().queued()).isEqualTo(1);
+
+        waiting.dispose();
+        assertThat(scheduler.stats().queued()).isZero();
+
+        a1.tryEmitEmpty();
+        assertThat(started).containsExactly("a1");
+        assertThat(scheduler.stats().inFlight()).isZero();
+    }
+}
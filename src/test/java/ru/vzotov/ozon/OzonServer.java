@@ -0,0 +1,127 @@
+package ru.vzotov.ozon;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.QueryStringDecoder;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.http.server.HttpServer;
+import ru.vzotov.ozon.model.OzonApi;
+import ru.vzotov.ozon.security.SecurityApi;
+
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+
+/**
+ * Local server answering composer pages and client operations, and authorized instances connected to it.
+ */
+final class OzonServer implements AutoCloseable {
+
+    static final String USER = "user";
+
+    private final ObjectMapper mapper = JsonCodec.defaultMapper()
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+
+    private final Map<String, String> pages = new ConcurrentHashMap<>();
+
+    private final List<String> requested = new CopyOnWriteArrayList<>();
+
+    private final List<OzonApi.ClientOperationsRequest> operationRequests = new CopyOnWriteArrayList<>();
+
+    private volatile Function<OzonApi.ClientOperationsRequest, OzonApi.ClientOperations> clientOperations =
+            request -> new OzonApi.ClientOperations(new OzonApi.Cursors(), false, List.of());
+
+    private final DisposableServer server;
+
+    OzonServer() {
+        server = HttpServer.create()
+                .port(0)
+                .route(routes -> routes
+                        .get("/composer-api.bx/page/json/v2", (req, res) -> {
+                            final String url = new QueryStringDecoder(req.uri()).parameters().get("url").get(0);
+                            requested.add(url);
+                            final String page = pages.get(url);
+                            return page == null ?
+                                    res.status(HttpResponseStatus.NOT_FOUND).send() :
+                                    res.header(HttpHeaderNames.CONTENT_TYPE, HttpHeaderValues.APPLICATION_JSON)
+                                            .sendString(Mono.just(page), StandardCharsets.UTF_8);
+                        })
+                        .post("/clientOperations", (req, res) -> res
+                                .header(HttpHeaderNames.CONTENT_TYPE, HttpHeaderValues.APPLICATION_JSON)
+                                .sendString(req.receive().aggregate().asString(StandardCharsets.UTF_8).map(body -> {
+                                    try {
+                                        final OzonApi.ClientOperationsRequest request =
+                                                mapper.readValue(body, OzonApi.ClientOperationsRequest.class);
+                                        operationRequests.add(request);
+                                        return mapper.writeValueAsString(clientOperations.apply(request));
+                                    } catch (JsonProcessingException e) {
+                                        throw new UncheckedIOException(e);
+                                    }
+                                }), StandardCharsets.UTF_8)))
+                .bindNow();
+    }
+
+    /**
+     * Serves a composer page with one widget of the component.
+     *
+     * @param state    JSON state of the widget
+     * @param nextPage URL of the next page, or null for the last page
+     */
+    void page(String url, String component, String state, String nextPage) {
+        final ObjectNode page = mapper.createObjectNode();
+        page.putArray("layout").addObject()
+                .put("component", component)
+                .put("stateId", component + "-1");
+        page.putObject("widgetStates").put(component + "-1", state);
+        page.put("nextPage", nextPage);
+        pages.put(url, page.toString());
+    }
+
+    void clientOperations(Function<OzonApi.ClientOperationsRequest, OzonApi.ClientOperations> handler) {
+        this.clientOperations = handler;
+    }
+
+    /**
+     * @return URLs of the composer pages requested, in the order of the requests
+     */
+    List<String> requested() {
+        return requested;
+    }
+
+    List<OzonApi.ClientOperationsRequest> operationRequests() {
+        return operationRequests;
+    }
+
+    OzonBuilder.AuthorizedInstance instance(CheckpointStore checkpoints) {
+        final String base = "http://127.0.0.1:" + server.port() + "/";
+        final AuthorizationCache sessions = new AuthorizationCache(current -> Mono.just(new AuthorizationCache.Session(
+                new SecurityApi.OzonAuthorization(
+                        new SecurityApi.OzonAuthentication(new SecurityApi.OzonUserId(USER),
+                                new SecurityApi.OzonAccessToken("access"), new SecurityApi.OzonRefreshToken("refresh")),
+                        new SecurityApi.FinanceAccessToken("access"),
+                        new SecurityApi.FinanceRefreshToken("refresh")),
+                Instant.MAX)), Duration.ofMinutes(1));
+        return new OzonBuilder.AuthorizedInstance(HttpClient.create().baseUrl(base), base, sessions,
+                new JsonCodec(JsonCodec.defaultMapper()), 1, null,
+                new RequestPolicy(Map.of(), RequestPolicy.Backoff.NONE, null), null,
+                new Deadlines(Map.of(), null), null, checkpoints);
+    }
+
+    @Override
+    public void close() {
+        server.disposeNow();
+    }
+}
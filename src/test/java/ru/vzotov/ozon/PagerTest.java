@@ -0,0 +1,75 @@
+package ru.vzotov.ozon;
+
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Subscription;
+import reactor.core.publisher.BaseSubscriber;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PagerTest {
+
+    @Test
+    public void testAllPages() {
+        final List<Integer> pages = Pager.pages(Mono.just(1), p -> p < 5 ? Mono.just(p + 1) : Mono.empty(), 1)
+                .collectList().block();
+        assertThat(pages).containsExactly(1, 2, 3, 4, 5);
+    }
+
+    @Test
+    public void testNextPageRequestedBeforeEmission() {
+        final AtomicInteger fetched = new AtomicInteger(1);
+        final List<Integer> fetchedOnEmission = new ArrayList<>();
+        Pager.pages(Mono.just(1), p -> p < 3 ? Mono.fromSupplier(() -> fetched.incrementAndGet()) : Mono.empty(), 1)
+                .doOnNext(p -> fetchedOnEmission.add(fetched.get()))
+                .blockLast();
+        assertThat(fetchedOnEmission).containsExactly(2, 3, 3);
+    }
+
+    @Test
+    public void testPrefetchIsBounded() {
+        final AtomicInteger fetched = new AtomicInteger(1);
+        final List<Integer> received = new ArrayList<>();
+        final BaseSubscriber<Integer> subscriber = new BaseSubscriber<>() {
+            @Override
+            protected void hookOnSubscribe(Subscription subscription) {
+                request(1);
+            }
+
+            @Override
+            protected void hookOnNext(Integer value) {
+                received.add(value);
+            }
+        };
+        Pager.pages(Mono.just(1), p -> Mono.fromSupplier(fetched::incrementAndGet), 2).subscribe(subscriber);
+
+        assertThat(received).containsExactly(1);
+        assertThat(fetched.get()).isEqualTo(3);
+
+        subscriber.request(1);
+        assertThat(received).containsExactly(1, 2);
+        assertThat(fetched.get()).isEqualTo(4);
+
+        subscriber.cancel();
+    }
+
+    @Test
+    public void testErrorAfterFetchedPages() {
+        final Sinks.One<Integer> failure = Sinks.one();
+        failure.tryEmitError(new IllegalStateException("boom"));
+        final List<Integer> received = new ArrayList<>();
+        final Throwable error = Pager.pages(Mono.just(1), p -> p < 2 ? Mono.just(p + 1) : failure.asMono(), 1)
+                .doOnNext(received::add)
+                .then()
+                .materialize()
+                .block()
+                .getThrowable();
+        assertThat(received).containsExactly(1, 2);
+        assertThat(error).hasMessage("boom");
+    }
+}
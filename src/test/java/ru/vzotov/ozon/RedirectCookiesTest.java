@@ -0,0 +1,59 @@
+package ru.vzotov.ozon;
+
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.http.server.HttpServer;
+
+import java.util.List;
+import java.util.Objects;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RedirectCookiesTest {
+
+    private DisposableServer server;
+
+    @BeforeEach
+    public void start() {
+        server = HttpServer.create()
+                .port(0)
+                .route(routes -> routes
+                        .get("/login/{id}", (req, res) -> res.status(HttpResponseStatus.FOUND)
+                                .header(HttpHeaderNames.LOCATION, "http://127.0.0.1:" + server.port() + "/target")
+                                .header(HttpHeaderNames.SET_COOKIE, "session=" + req.param("id"))
+                                .send())
+                        .get("/target", (req, res) -> res.sendString(Mono.just(
+                                Objects.toString(req.requestHeaders().get(HttpHeaderNames.COOKIE))))))
+                .bindNow();
+    }
+
+    @AfterEach
+    public void stop() {
+        server.disposeNow();
+    }
+
+    @Test
+    public void testCookiesAreScopedToCrossHostRedirectChain() {
+        final HttpClient client = RedirectCookies.followRedirects(HttpClient.create()
+                .baseUrl("http://localhost:" + server.port()));
+
+        final List<String> cookies = Flux.range(1, 20)
+                .flatMapSequential(id -> client.get().uri("/login/" + id)
+                        .responseContent().aggregate().asString()
+                        .contextWrite(RedirectCookies::scope))
+                .collectList()
+                .block();
+
+        assertThat(cookies).hasSize(20);
+        for (int i = 0; i < cookies.size(); i++) {
+            assertThat(cookies.get(i)).isEqualTo("session=" + (i + 1));
+        }
+    }
+}
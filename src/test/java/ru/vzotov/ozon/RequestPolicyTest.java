@@ -0,0 +1,120 @@
+package ru.vzotov.ozon;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class RequestPolicyTest {
+
+    private static final RequestPolicy.Backoff FAST = new RequestPolicy.Backoff(3, Duration.ofMillis(1), Duration.ofMillis(50));
+
+    private static Mono<String> failing(AtomicInteger attempts, int failures, HttpResponseStatus status, Duration retryAfter) {
+        return Mono.defer(() -> attempts.incrementAndGet() <= failures ?
+                Mono.error(new OzonHttpException(status, retryAfter)) :
+                Mono.just("ok"));
+    }
+
+    @Test
+    public void testTransientFailuresAreRetried() {
+        final AtomicInteger attempts = new AtomicInteger();
+        final RequestPolicy policy = new RequestPolicy(Map.of(), FAST, null);
+        assertThat(policy.apply("host", failing(attempts, 2, HttpResponseStatus.SERVICE_UNAVAILABLE, Duration.ofMillis(5))).block())
+                .isEqualTo("ok");
+        assertThat(attempts).hasValue(3);
+    }
+
+    @Test
+    public void testClientErrorsAndLongRetryAfterAreNotRetried() {
+        final RequestPolicy policy = new RequestPolicy(Map.of(), FAST, null);
+
+        final AtomicInteger forbidden = new AtomicInteger();
+        assertThatThrownBy(() -> policy.apply("host", failing(forbidden, 1, HttpResponseStatus.FORBIDDEN, null)).block())
+                .isInstanceOf(OzonHttpException.class);
+        assertThat(forbidden).hasValue(1);
+
+        final AtomicInteger throttled = new AtomicInteger();
+        assertThatThrownBy(() -> policy.apply("host", failing(throttled, 1, HttpResponseStatus.TOO_MANY_REQUESTS, Duration.ofHours(1))).block())
+                .isInstanceOf(OzonHttpException.class);
+        assertThat(throttled).hasValue(1);
+    }
+
+    @Test
+    public void testUndecodableResponseIsNotRetried() {
+        final AtomicInteger attempts = new AtomicInteger();
+        final RequestPolicy policy = new RequestPolicy(Map.of(), FAST, new RequestPolicy.Breaker(1, Duration.ofHours(1)));
+        final Mono<Object> request = Mono.fromCallable(() -> {
+            attempts.incrementAndGet();
+            return JsonCodec.defaultMapper().readTree("{\"layout\": [");
+        });
+        assertThatThrownBy(() -> policy.apply("host", request).block()).hasCauseInstanceOf(JsonProcessingException.class);
+        assertThat(attempts).hasValue(1);
+        assertThat(policy.apply("host", Mono.just("ok")).block()).isEqualTo("ok");
+    }
+
+    @Test
+    public void testStreamIsNotRetriedAfterEmission() {
+        final AtomicInteger attempts = new AtomicInteger();
+        final RequestPolicy policy = new RequestPolicy(Map.of(), FAST, null);
+        final Flux<String> request = Flux.defer(() -> {
+            attempts.incrementAndGet();
+            return Flux.concat(Flux.just("part"), Flux.error(new OzonHttpException(HttpResponseStatus.BAD_GATEWAY, null)));
+        });
+        assertThatThrownBy(() -> policy.apply("host", request).blockLast()).isInstanceOf(OzonHttpException.class);
+        assertThat(attempts).hasValue(1);
+    }
+
+    @Test
+    public void testCircuitBreakerShedsLoad() {
+        final AtomicInteger attempts = new AtomicInteger();
+        final RequestPolicy policy = new RequestPolicy(Map.of(), RequestPolicy.Backoff.NONE,
+                new RequestPolicy.Breaker(2, Duration.ofHours(1)));
+        for (int i = 0; i < 2; i++) {
+            assertThatThrownBy(() -> policy.apply("host", failing(attempts, 10, HttpResponseStatus.BAD_GATEWAY, null)).block())
+                    .isInstanceOf(OzonHttpException.class);
+        }
+        assertThatThrownBy(() -> policy.apply("host", failing(attempts, 10, HttpResponseStatus.BAD_GATEWAY, null)).block())
+                .isNotInstanceOf(OzonHttpException.class)
+                .hasMessageContaining("open");
+        assertThat(attempts).hasValue(2);
+        assertThat(policy.apply("other", Mono.just("ok")).block()).isEqualTo("ok");
+    }
+
+    @Test
+    public void testCircuitBreakerTrial() {
+        final CircuitBreaker breaker = new CircuitBreaker(1, Duration.ofNanos(100));
+        breaker.onFailure(0);
+        assertThat(breaker.tryAcquire(50)).isFalse();
+        assertThat(breaker.tryAcquire(100)).isTrue();
+        assertThat(breaker.tryAcquire(100)).isFalse();
+        breaker.onSuccess();
+        assertThat(breaker.tryAcquire(100)).isTrue();
+    }
+
+    @Test
+    public void testTokenBucket() {
+        final TokenBucket bucket = new TokenBucket(10, 2, 0);
+        assertThat(bucket.reserve(0)).isZero();
+        assertThat(bucket.reserve(0)).isZero();
+        assertThat(bucket.reserve(0)).isEqualTo(100_000_000L);
+        assertThat(bucket.reserve(0)).isEqualTo(200_000_000L);
+        assertThat(bucket.reserve(1_000_000_000L)).isZero();
+    }
+
+    @Test
+    public void testParseRetryAfter() {
+        final Instant now = Instant.parse("2023-06-01T10:00:00Z");
+        assertThat(OzonHttpException.parseRetryAfter("120", now)).isEqualTo(Duration.ofMinutes(2));
+        assertThat(OzonHttpException.parseRetryAfter("Thu, 01 Jun 2023 10:00:30 GMT", now)).isEqualTo(Duration.ofSeconds(30));
+        assertThat(OzonHttpException.parseRetryAfter("soon", now)).isNull();
+    }
+}
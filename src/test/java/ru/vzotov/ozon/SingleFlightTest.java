@@ -0,0 +1,84 @@
+package ru.vzotov.ozon;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SingleFlightTest {
+
+    @Test
+    public void testConcurrentCallsShareResult() {
+        final SingleFlight<String, Object> flights = new SingleFlight<>();
+        final AtomicInteger calls = new AtomicInteger();
+        final Sinks.One<Object> response = Sinks.one();
+        final AtomicReference<Object> first = new AtomicReference<>();
+        final AtomicReference<Object> second = new AtomicReference<>();
+
+        flights.execute("page", () -> {
+            calls.incrementAndGet();
+            return response.asMono();
+        }).subscribe(first::set);
+        flights.execute("page", () -> {
+            calls.incrementAndGet();
+            return response.asMono();
+        }).subscribe(second::set);
+
+        final Object decoded = new Object();
+        response.tryEmitValue(decoded);
+        assertThat(calls).hasValue(1);
+        assertThat(first.get()).isSameAs(decoded);
+        assertThat(second.get()).isSameAs(decoded);
+        assertThat(flights.size()).isZero();
+
+        assertThat(flights.execute("page", () -> {
+            calls.incrementAndGet();
+            return Mono.just(new Object());
+        }).block()).isNotSameAs(decoded);
+        assertThat(calls).hasValue(2);
+    }
+
+    @Test
+    public void testLateCallerReceivesResult() {
+        final SingleFlight<String, Object> flights = new SingleFlight<>();
+        final AtomicInteger calls = new AtomicInteger();
+        final Sinks.One<Object> response = Sinks.one();
+        final Mono<Object> call = flights.execute("page", () -> {
+            calls.incrementAndGet();
+            return response.asMono();
+        });
+        final AtomicReference<Object> late = new AtomicReference<>();
+        final AtomicBoolean lateCompleted = new AtomicBoolean();
+
+        // the second caller joins while the result is being delivered to the first one
+        call.subscribe(value -> call.subscribe(late::set, e -> {
+        }, () -> lateCompleted.set(true)));
+
+        final Object decoded = new Object();
+        response.tryEmitValue(decoded);
+        assertThat(calls).hasValue(1);
+        assertThat(late.get()).isSameAs(decoded);
+        assertThat(lateCompleted).isTrue();
+    }
+
+    @Test
+    public void testCallIsCancelledWhenAllCallersCancel() {
+        final SingleFlight<String, Object> flights = new SingleFlight<>();
+        final AtomicBoolean cancelled = new AtomicBoolean();
+        final Mono<Object> call = Mono.never().doOnCancel(() -> cancelled.set(true));
+
+        final Disposable first = flights.execute("page", () -> call).subscribe();
+        final Disposable second = flights.execute("page", () -> call).subscribe();
+        first.dispose();
+        assertThat(cancelled).isFalse();
+        second.dispose();
+        assertThat(cancelled).isTrue();
+        assertThat(flights.size()).isZero();
+    }
+}
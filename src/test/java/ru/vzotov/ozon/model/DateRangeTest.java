@@ -0,0 +1,29 @@
+package ru.vzotov.ozon.model;
+
+import org.junit.jupiter.api.Test;
+import ru.vzotov.ozon.model.OzonApi.DateRange;
+
+import java.time.LocalDate;
+import java.time.Period;
+import java.time.YearMonth;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DateRangeTest {
+
+    @Test
+    public void testSplitByMonth() {
+        final DateRange range = new DateRange(LocalDate.of(2023, 1, 1), LocalDate.of(2023, 3, 15));
+        assertThat(range.split(Period.ofMonths(1))).containsExactly(
+                new DateRange(YearMonth.of(2023, 1)),
+                new DateRange(YearMonth.of(2023, 2)),
+                new DateRange(LocalDate.of(2023, 3, 1), LocalDate.of(2023, 3, 15))
+        );
+    }
+
+    @Test
+    public void testSplitSingleDay() {
+        final DateRange range = new DateRange(LocalDate.of(2023, 1, 1), LocalDate.of(2023, 1, 1));
+        assertThat(range.split(Period.ofDays(7))).containsExactly(range);
+    }
+}
@@ -0,0 +1,40 @@
+package ru.vzotov.ozon.model;
+
+import org.junit.jupiter.api.Test;
+import ru.vzotov.ozon.model.OzonApi.Order;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class OrderFingerprintTest {
+
+    private static Order order(String status, Object trackingInfo) {
+        final OzonApi.ComposerResponse.Button button = new OzonApi.ComposerResponse.Button("track", "Отследить", null,
+                new OzonApi.ComposerResponse.Action("deeplink", "ozon://track", null), trackingInfo, null, "primary");
+        return new Order(new Order.Header("1 июня 2023", "0123456789-0001"), null,
+                List.of(new Order.Section("Отправление", new Order.Status("green", status),
+                        List.of(new Order.Description("text", "1 товар")), List.of(), List.of(button), "1")));
+    }
+
+    @Test
+    public void testFingerprintChangesWithStatusOnly() {
+        assertThat(order("В пути", null).fingerprint()).isEqualTo(order("В пути", "click").fingerprint());
+        assertThat(order("В пути", null).fingerprint()).isNotEqualTo(order("Получен", null).fingerprint());
+    }
+
+    @Test
+    public void testFieldBoundariesAreSignificant() {
+        final Order a = new Order(new Order.Header("ab", "c"), null, null);
+        final Order b = new Order(new Order.Header("a", "bc"), null, null);
+        final Order c = new Order(new Order.Header("abc", null), null, null);
+        assertThat(a.fingerprint()).isNotEqualTo(b.fingerprint()).isNotEqualTo(c.fingerprint());
+    }
+
+    @Test
+    public void testOrderWithoutHeaderHasNoDate() {
+        assertThat(new Order(null, null, null).date()).isEqualTo(LocalDate.MIN);
+        assertThat(new Order(new Order.Header(null, "1"), null, null).date()).isEqualTo(LocalDate.MIN);
+    }
+}
@@ -0,0 +1,86 @@
+package ru.vzotov.ozon.store;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import reactor.core.publisher.Flux;
+import ru.vzotov.ozon.Ozon;
+import ru.vzotov.ozon.model.OzonApi;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ClientOperationStoreTest {
+
+    private static final OffsetDateTime NOW = OffsetDateTime.of(2023, 6, 10, 12, 0, 0, 0, ZoneOffset.ofHours(3));
+
+    @TempDir
+    Path directory;
+
+    private final List<OzonApi.ClientOperationsRequest> requests = new ArrayList<>();
+
+    private static OzonApi.ClientOperation operation(String id, OffsetDateTime time, String status) {
+        return new OzonApi.ClientOperation(id, id, "purpose", time, null, null, "merchant", null, "type", status,
+                null, null, null, 100L, null, null);
+    }
+
+    private Ozon ozon(List<OzonApi.ClientOperation> items) {
+        return new FakeOzon().clientOperations(request -> {
+            requests.add(request);
+            return Flux.just(new OzonApi.ClientOperations(new OzonApi.Cursors(), false, items));
+        });
+    }
+
+    @Test
+    public void testSyncStoresDeltaFromWatermark() throws IOException {
+        final OzonApi.ClientOperation first = operation("1", NOW.minusDays(2), "pending");
+        final OzonApi.ClientOperation second = operation("2", NOW, "done");
+        try (ClientOperationStore store = ClientOperationStore.open(directory, Duration.ofDays(1))) {
+            assertThat(store.sync(ozon(List.of(second, first)), "user", LocalDate.of(2023, 1, 1)).collectList().block())
+                    .containsExactly(second, first);
+            assertThat(requests.get(0).filter().date().from()).isEqualTo(LocalDate.of(2023, 1, 1));
+        }
+
+        try (ClientOperationStore store = ClientOperationStore.open(directory, Duration.ofDays(1))) {
+            assertThat(store.watermark("user")).contains(NOW);
+            final OzonApi.ClientOperation updated = operation("1", NOW.minusDays(2), "done");
+            assertThat(store.sync(ozon(List.of(second, updated)), "user", LocalDate.of(2023, 1, 1)).collectList().block())
+                    .containsExactly(updated);
+            assertThat(requests.get(1).filter().date().from()).isEqualTo(LocalDate.of(2023, 6, 9));
+            assertThat(store.get("user", "1")).contains(updated);
+            assertThat(store.operations("user")).containsExactly(second, updated);
+            assertThat(store.operations("other")).isEmpty();
+        }
+    }
+
+    @Test
+    public void testFailedSyncDoesNotMoveWatermark() throws IOException {
+        final OzonApi.ClientOperation newer = operation("2", NOW, "done");
+        final OzonApi.ClientOperation older = operation("1", NOW.minusDays(10), "done");
+        final Ozon failing = new FakeOzon().clientOperations(request -> {
+            requests.add(request);
+            return Flux.just(new OzonApi.ClientOperations(new OzonApi.Cursors(), true, List.of(newer)))
+                    .concatWith(Flux.error(new IOException("page 2 failed")));
+        });
+        try (ClientOperationStore store = ClientOperationStore.open(directory, Duration.ofDays(1))) {
+            assertThat(store.sync(failing, "user", LocalDate.of(2023, 1, 1)).onErrorResume(e -> Flux.empty()).collectList().block())
+                    .containsExactly(newer);
+            assertThat(store.watermark("user")).isEmpty();
+        }
+
+        try (ClientOperationStore store = ClientOperationStore.open(directory, Duration.ofDays(1))) {
+            assertThat(store.watermark("user")).isEmpty();
+            assertThat(store.sync(ozon(List.of(newer, older)), "user", LocalDate.of(2023, 1, 1)).collectList().block())
+                    .containsExactly(older);
+            assertThat(requests.get(1).filter().date().from()).isEqualTo(LocalDate.of(2023, 1, 1));
+            assertThat(store.watermark("user")).contains(NOW);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package ru.vzotov.ozon.store;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import ru.vzotov.ozon.Ozon;
+import ru.vzotov.ozon.model.OzonApi;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class EChecksArchiveTest {
+
+    @TempDir
+    Path directory;
+
+    private final Map<String, AtomicInteger> active = new ConcurrentHashMap<>();
+
+    private final Map<String, Integer> maxActive = new ConcurrentHashMap<>();
+
+    private static OzonApi.Check check(String host, int id) {
+        final String link = "ozon://pdf?url=https%3A%2F%2F" + host + "%2F" + id;
+        return new OzonApi.Check("Чек " + id, "1 июня 2023 в 12:00", "100 ₽", null, null, null,
+                new OzonApi.ComposerResponse.Button(null, "PDF", null,
+                        new OzonApi.ComposerResponse.Action("deeplink", link, null), null, null, null));
+    }
+
+    private Ozon ozon() {
+        return new FakeOzon()
+                .eChecks(since -> Flux.range(0, 4).map(page -> new OzonApi.EChecks("Чеки", List.of(
+                        check("a.ozon.ru", page * 3), check("a.ozon.ru", page * 3 + 1), check("b.ozon.ru", page * 3 + 2)))))
+                .downloadTo((uri, target) -> {
+                    final String url = PdfCache.key(uri);
+                    final String host = URI.create(url).getHost();
+                    return Mono.defer(() -> {
+                                final int now = active.computeIfAbsent(host, h -> new AtomicInteger()).incrementAndGet();
+                                maxActive.merge(host, now, Math::max);
+                                return Mono.delay(Duration.ofMillis(20));
+                            })
+                            .then(Mono.defer(() -> {
+                                active.get(host).decrementAndGet();
+                                if (url.endsWith("/4")) return Mono.error(new IOException("Broken " + url));
+                                return FakeOzon.write(target, url.getBytes(StandardCharsets.UTF_8));
+                            }));
+                });
+    }
+
+    @Test
+    public void testArchiveContinuesPastFailuresAndSkipsCachedChecks() throws IOException {
+        try (PdfCache cache = PdfCache.open(directory, 1 << 20)) {
+            final EChecksArchive archive = new EChecksArchive(cache, 4, 2);
+            final EChecksArchive.Manifest manifest = archive.archive(ozon(), null).block();
+            assertThat(manifest.items()).hasSize(12);
+            assertThat(manifest.items()).extracting(item -> item.check().title()).startsWith("Чек 0", "Чек 1", "Чек 2");
+            assertThat(manifest.count(EChecksArchive.Status.DOWNLOADED)).isEqualTo(11);
+            assertThat(manifest.failures()).singleElement()
+                    .satisfies(item -> assertThat(item.error()).contains("Broken"));
+            assertThat(maxActive.get("a.ozon.ru")).isLessThanOrEqualTo(2);
+            assertThat(maxActive.get("b.ozon.ru")).isLessThanOrEqualTo(2);
+
+            final EChecksArchive.Manifest again = archive.archive(ozon(), null).block();
+            assertThat(again.count(EChecksArchive.Status.CACHED)).isEqualTo(11);
+            assertThat(again.count(EChecksArchive.Status.FAILED)).isEqualTo(1);
+            assertThat(again.items().get(0).path()).hasContent("https://a.ozon.ru/0");
+        }
+    }
+
+    @Test
+    public void testChecksWithoutDateAreArchived() throws IOException {
+        final OzonApi.Check undated = new OzonApi.Check("Чек", "без даты", "100 ₽", null, null, null,
+                new OzonApi.ComposerResponse.Button(null, "PDF", null,
+                        new OzonApi.ComposerResponse.Action("deeplink", "ozon://pdf?url=https%3A%2F%2Fa.ozon.ru%2F1", null),
+                        null, null, null));
+        final Ozon ozon = new FakeOzon()
+                .eChecks(since -> Flux.just(new OzonApi.EChecks("Чеки", List.of(undated))))
+                .downloadTo((uri, target) -> FakeOzon.write(target, new byte[]{1}));
+        try (PdfCache cache = PdfCache.open(directory, 1 << 20)) {
+            final EChecksArchive.Manifest manifest = new EChecksArchive(cache, 1, 1)
+                    .archive(ozon, LocalDate.of(2023, 1, 1)).block();
+            assertThat(manifest.items()).singleElement()
+                    .extracting(EChecksArchive.Item::status).isEqualTo(EChecksArchive.Status.DOWNLOADED);
+        }
+    }
+
+    @Test
+    public void testChecksWithoutValidLinkFail() throws IOException {
+        final OzonApi.Check noButton = new OzonApi.Check("Чек 1", "1 июня 2023 в 12:00", "100 ₽", null, null, null, null);
+        final OzonApi.Check invalid = new OzonApi.Check("Чек 2", "1 июня 2023 в 12:00", "100 ₽", null, null, null,
+                new OzonApi.ComposerResponse.Button(null, "PDF", null,
+                        new OzonApi.ComposerResponse.Action("deeplink", "ozon://pdf?url=a b", null), null, null, null));
+        final Ozon ozon = new FakeOzon()
+                .eChecks(since -> Flux.just(new OzonApi.EChecks("Чеки", List.of(noButton, invalid))));
+        try (PdfCache cache = PdfCache.open(directory, 1 << 20)) {
+            final EChecksArchive.Manifest manifest = new EChecksArchive(cache, 1, 1).archive(ozon, null).block();
+            assertThat(manifest.items()).extracting(EChecksArchive.Item::error)
+                    .containsExactly("No PDF link", "Invalid PDF link: ozon://pdf?url=a b");
+        }
+    }
+
+    @Test
+    public void testLimitsMustBePositive() throws IOException {
+        try (PdfCache cache = PdfCache.open(directory, 1 << 20)) {
+            assertThatThrownBy(() -> new EChecksArchive(cache, 0, 1)).isInstanceOf(IllegalArgumentException.class);
+            assertThatThrownBy(() -> new EChecksArchive(cache, 1, 0)).isInstanceOf(IllegalArgumentException.class);
+        }
+    }
+}
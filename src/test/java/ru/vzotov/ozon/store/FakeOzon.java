@@ -0,0 +1,150 @@
+package ru.vzotov.ozon.store;
+
+import io.netty.buffer.ByteBuf;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import ru.vzotov.ozon.Ozon;
+import ru.vzotov.ozon.model.OzonApi;
+
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.Period;
+import java.util.HexFormat;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * {@link Ozon} answering the calls used by the stores with handlers set by a test. Other calls are unsupported.
+ */
+final class FakeOzon implements Ozon {
+
+    private Function<OzonApi.ClientOperationsRequest, Flux<OzonApi.ClientOperations>> clientOperations =
+            request -> Flux.error(new UnsupportedOperationException("clientOperations"));
+
+    private Function<OzonApi.OrderListFilter, Flux<OzonApi.OrderList>> orders =
+            filter -> Flux.error(new UnsupportedOperationException("orders"));
+
+    private Function<OzonApi.Order, Mono<OzonApi.OrderGraph>> orderGraph =
+            order -> Mono.error(new UnsupportedOperationException("orderGraph"));
+
+    private Function<LocalDate, Flux<OzonApi.EChecks>> eChecks =
+            since -> Flux.error(new UnsupportedOperationException("eChecks"));
+
+    private BiFunction<URI, Path, Mono<OzonApi.DownloadResult>> downloadTo =
+            (uri, target) -> Mono.error(new UnsupportedOperationException("downloadTo"));
+
+    FakeOzon clientOperations(Function<OzonApi.ClientOperationsRequest, Flux<OzonApi.ClientOperations>> handler) {
+        this.clientOperations = handler;
+        return this;
+    }
+
+    /**
+     * Answers both {@code orders} calls, the date cutoff is ignored.
+     */
+    FakeOzon orders(Function<OzonApi.OrderListFilter, Flux<OzonApi.OrderList>> handler) {
+        this.orders = handler;
+        return this;
+    }
+
+    FakeOzon orderGraph(Function<OzonApi.Order, Mono<OzonApi.OrderGraph>> handler) {
+        this.orderGraph = handler;
+        return this;
+    }
+
+    /**
+     * Answers both {@code eChecks} calls, the handler receives null when no date is given.
+     */
+    FakeOzon eChecks(Function<LocalDate, Flux<OzonApi.EChecks>> handler) {
+        this.eChecks = handler;
+        return this;
+    }
+
+    FakeOzon downloadTo(BiFunction<URI, Path, Mono<OzonApi.DownloadResult>> handler) {
+        this.downloadTo = handler;
+        return this;
+    }
+
+    /**
+     * Writes the content to the target, as a completed download would.
+     */
+    static Mono<OzonApi.DownloadResult> write(Path target, byte[] content) {
+        return Mono.fromCallable(() -> {
+            Files.write(target, content);
+            return new OzonApi.DownloadResult(target, content.length, content.length, Duration.ofMillis(1),
+                    HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content)));
+        });
+    }
+
+    @Override
+    public Flux<OzonApi.ClientOperations> clientOperations(OzonApi.ClientOperationsRequest request) {
+        return clientOperations.apply(request);
+    }
+
+    @Override
+    public Flux<OzonApi.ClientOperation> clientOperations(OzonApi.ClientOperationsRequest request, Period shard, int parallelism) {
+        throw new UnsupportedOperationException("clientOperations");
+    }
+
+    @Override
+    public Flux<OzonApi.OrderList> orders(OzonApi.OrderListFilter filter) {
+        return orders.apply(filter);
+    }
+
+    @Override
+    public Flux<OzonApi.OrderList> orders(OzonApi.OrderListFilter filter, LocalDate since) {
+        return orders.apply(filter);
+    }
+
+    @Override
+    public Flux<OzonApi.OrderDetailsPage> orderDetails(String orderId) {
+        throw new UnsupportedOperationException("orderDetails");
+    }
+
+    @Override
+    public Flux<OzonApi.OrderDetailsPosting> orderDetailsPosting(String uri) {
+        throw new UnsupportedOperationException("orderDetailsPosting");
+    }
+
+    @Override
+    public Mono<OzonApi.OrderGraph> orderGraph(OzonApi.Order order, int concurrency) {
+        return orderGraph.apply(order);
+    }
+
+    @Override
+    public Flux<OzonApi.OrderGraph> orderGraphs(OzonApi.OrderListFilter filter, int concurrency) {
+        throw new UnsupportedOperationException("orderGraphs");
+    }
+
+    @Override
+    public Flux<OzonApi.OrderGraph> orderGraphs(OzonApi.OrderListFilter filter, LocalDate since, int concurrency) {
+        throw new UnsupportedOperationException("orderGraphs");
+    }
+
+    @Override
+    public Flux<OzonApi.EChecks> eChecks() {
+        return eChecks.apply(null);
+    }
+
+    @Override
+    public Flux<OzonApi.EChecks> eChecks(LocalDate since) {
+        return eChecks.apply(since);
+    }
+
+    @Override
+    public Flux<ByteBuf> download(URI uri) {
+        throw new UnsupportedOperationException("download");
+    }
+
+    @Override
+    public Mono<OzonApi.DownloadResult> downloadTo(URI uri, Path target) {
+        return downloadTo.apply(uri, target);
+    }
+
+    @Override
+    public void dispose() {
+    }
+}
@@ -0,0 +1,36 @@
+package ru.vzotov.ozon.store;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FileCheckpointStoreTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void testCheckpointSurvivesReopenUntilCleared() throws IOException {
+        final String stream = "clientOperations:user:{\"perPage\":50}";
+        FileCheckpointStore store = FileCheckpointStore.open(directory);
+        assertThat(store.load(stream).blockOptional()).isEmpty();
+        store.save(stream, "{\"next\":\"a\"}").block();
+        store.save(stream, "{\"next\":\"b\"}").block();
+        store.save("eChecks:user:\"/my/e-check\"", "/my/e-check?page=2").block();
+
+        store = FileCheckpointStore.open(directory);
+        assertThat(store.load(stream).block()).isEqualTo("{\"next\":\"b\"}");
+        store.clear(stream).block();
+        assertThat(store.load(stream).blockOptional()).isEmpty();
+        assertThat(store.load("eChecks:user:\"/my/e-check\"").block()).isEqualTo("/my/e-check?page=2");
+        try (Stream<Path> files = Files.list(directory)) {
+            assertThat(files).hasSize(1);
+        }
+    }
+}
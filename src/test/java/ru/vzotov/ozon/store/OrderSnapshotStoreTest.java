@@ -0,0 +1,90 @@
+package ru.vzotov.ozon.store;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import ru.vzotov.ozon.Ozon;
+import ru.vzotov.ozon.model.OzonApi;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class OrderSnapshotStoreTest {
+
+    @TempDir
+    Path directory;
+
+    private final List<String> fetched = new ArrayList<>();
+
+    private static OzonApi.Order order(String number, String status) {
+        return new OzonApi.Order(new OzonApi.Order.Header("1 июня 2023", number), null,
+                List.of(new OzonApi.Order.Section("Отправление", new OzonApi.Order.Status("green", status),
+                        List.of(), List.of(), List.of(), "shipment-" + number)));
+    }
+
+    private static OzonApi.OrderGraph graph(OzonApi.Order order) {
+        final OzonApi.OrderDetailsPage details = new OzonApi.OrderDetailsPage(null, null, Set.of(
+                new OzonApi.ShipmentWidget("widget", List.of(
+                        new OzonApi.ShipmentWidget.Status("status", new OzonApi.ShipmentWidget.Status.Data("Получен", "green"))))));
+        final OzonApi.OrderDetailsPosting posting = new OzonApi.OrderDetailsPosting(new OzonApi.SellerProductsList(
+                new OzonApi.SellerProductsList.Header("id", "type", "Товары", null), null, List.of()));
+        return new OzonApi.OrderGraph(order, List.of(details), List.of(posting));
+    }
+
+    private Ozon ozon(List<OzonApi.Order> orders) {
+        return new FakeOzon()
+                .orders(filter -> Flux.just(new OzonApi.OrderList(orders)))
+                .orderGraph(order -> {
+                    fetched.add(order.number());
+                    return Mono.just(graph(order));
+                });
+    }
+
+    @Test
+    public void testTerminalOrdersAreNotFetchedAgain() throws IOException {
+        final OzonApi.Order received = order("100", "Получен");
+        final OzonApi.Order inTransit = order("200", "В пути");
+        try (OrderSnapshotStore store = OrderSnapshotStore.open(directory)) {
+            assertThat(store.sync(ozon(List.of(received, inTransit)), "user", OzonApi.OrderListFilter.ALL, 2).collectList().block())
+                    .containsExactly(graph(received), graph(inTransit));
+            assertThat(fetched).containsExactly("100", "200");
+        }
+
+        fetched.clear();
+        try (OrderSnapshotStore store = OrderSnapshotStore.open(directory)) {
+            assertThat(store.isImmutable("user", "100")).isTrue();
+            assertThat(store.isImmutable("user", "200")).isFalse();
+            assertThat(store.get("user", "100")).contains(graph(received));
+            final OzonApi.Order cancelled = order("200", "Отменён");
+            assertThat(store.sync(ozon(List.of(received, cancelled)), "user", OzonApi.OrderListFilter.ALL, 2).collectList().block())
+                    .containsExactly(graph(received), graph(cancelled));
+            assertThat(fetched).containsExactly("200");
+            assertThat(store.isImmutable("user", "200")).isTrue();
+            assertThat(store.orders("user")).containsExactly(graph(received), graph(cancelled));
+            assertThat(store.orders("other")).isEmpty();
+        }
+    }
+
+    @Test
+    public void testChangesFetchOnlyNewAndChangedOrders() throws IOException {
+        final OzonApi.Order first = order("100", "В пути");
+        final OzonApi.Order second = order("200", "Оформлен");
+        try (OrderSnapshotStore store = OrderSnapshotStore.open(directory)) {
+            assertThat(store.changes(ozon(List.of(first, second)), "user", OzonApi.OrderListFilter.ALL, 2).collectList().block())
+                    .containsExactly(graph(first), graph(second));
+
+            fetched.clear();
+            final OzonApi.Order updated = order("200", "В пути");
+            final OzonApi.Order added = order("300", "Оформлен");
+            assertThat(store.changes(ozon(List.of(added, first, updated)), "user", OzonApi.OrderListFilter.ALL, 2).collectList().block())
+                    .containsExactly(graph(added), graph(updated));
+            assertThat(fetched).containsExactly("300", "200");
+        }
+    }
+}
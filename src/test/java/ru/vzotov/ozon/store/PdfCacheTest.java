@@ -0,0 +1,121 @@
+package ru.vzotov.ozon.store;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import reactor.core.publisher.Mono;
+import ru.vzotov.ozon.Ozon;
+import ru.vzotov.ozon.model.OzonApi;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PdfCacheTest {
+
+    @TempDir
+    Path directory;
+
+    private final List<String> downloads = new ArrayList<>();
+
+    private static URI link(String name) {
+        return URI.create("ozon://pdf?url=https%3A%2F%2Fozon.ru%2Fcheck%2F" + name);
+    }
+
+    private Ozon ozon(Map<String, String> contents) {
+        return new FakeOzon().downloadTo((uri, target) -> {
+            final String key = PdfCache.key(uri);
+            downloads.add(key);
+            return FakeOzon.write(target, contents.get(key).getBytes(StandardCharsets.UTF_8));
+        });
+    }
+
+    @Test
+    public void testDownloadsAreCachedAndDeduplicated() throws IOException {
+        final Ozon ozon = ozon(Map.of(
+                "https://ozon.ru/check/1", "same",
+                "https://ozon.ru/check/2", "same",
+                "https://ozon.ru/check/3", "other"));
+        try (PdfCache cache = PdfCache.open(directory, 1 << 20)) {
+            final Path first = cache.download(ozon, link("1")).block();
+            assertThat(cache.download(ozon, link("2")).block()).isEqualTo(first);
+            assertThat(cache.download(ozon, link("1")).block()).isEqualTo(first);
+            assertThat(first).hasContent("same");
+            assertThat(downloads).containsExactly("https://ozon.ru/check/1", "https://ozon.ru/check/2");
+            assertThat(cache.stats().files()).isEqualTo(1);
+        }
+
+        try (PdfCache cache = PdfCache.open(directory, 1 << 20)) {
+            assertThat(cache.contains(link("2"))).isTrue();
+            assertThat(cache.contains(link("3"))).isFalse();
+            assertThat(cache.get(link("1"))).hasValueSatisfying(path -> assertThat(path).hasContent("same"));
+            assertThat(cache.stats().bytes()).isEqualTo(4);
+        }
+    }
+
+    @Test
+    public void testLeastRecentlyUsedAreEvicted() throws IOException {
+        final Ozon ozon = ozon(Map.of(
+                "https://ozon.ru/check/1", "aaaa",
+                "https://ozon.ru/check/2", "bbbb",
+                "https://ozon.ru/check/3", "cccc"));
+        try (PdfCache cache = PdfCache.open(directory, 8)) {
+            final Path first = cache.download(ozon, link("1")).block();
+            cache.download(ozon, link("2")).block();
+            cache.get(link("1"));
+            cache.download(ozon, link("3")).block();
+            assertThat(cache.contains(link("1"))).isTrue();
+            assertThat(cache.contains(link("2"))).isFalse();
+            assertThat(cache.contains(link("3"))).isTrue();
+            assertThat(cache.stats().bytes()).isEqualTo(8);
+            assertThat(cache.stats().evictions()).isEqualTo(1);
+            assertThat(first).exists();
+        }
+        try (PdfCache cache = PdfCache.open(directory, 8)) {
+            assertThat(cache.stats().files()).isEqualTo(2);
+        }
+        try (var files = Files.list(directory.resolve("blobs"))) {
+            assertThat(files).hasSize(2);
+        }
+    }
+
+    @Test
+    public void testEvictedFilesAreKeptWhileHeld() throws IOException {
+        final Ozon ozon = ozon(Map.of(
+                "https://ozon.ru/check/1", "aaaa",
+                "https://ozon.ru/check/2", "bbbb"));
+        try (PdfCache cache = PdfCache.open(directory, 4)) {
+            final PdfCache.Hold hold = cache.hold();
+            final Path first = cache.download(ozon, link("1")).block();
+            cache.download(ozon, link("2")).block();
+            assertThat(cache.contains(link("1"))).isFalse();
+            assertThat(first).hasContent("aaaa");
+            hold.close();
+            assertThat(first).doesNotExist();
+            assertThat(cache.stats().files()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    public void testStaleIncomingFilesArePrunedOnOpen() throws IOException {
+        final Path incoming = Files.createDirectories(directory.resolve("incoming"));
+        final Path completed = Files.writeString(incoming.resolve("a.pdf"), "a");
+        final Path stale = Files.writeString(incoming.resolve("b.pdf.part"), "b");
+        Files.setLastModifiedTime(stale, FileTime.from(Instant.now().minus(Duration.ofDays(2))));
+        final Path recent = Files.writeString(incoming.resolve("c.pdf.part"), "c");
+
+        PdfCache.open(directory, 1 << 20).close();
+        assertThat(completed).doesNotExist();
+        assertThat(stale).doesNotExist();
+        assertThat(recent).exists();
+    }
+}
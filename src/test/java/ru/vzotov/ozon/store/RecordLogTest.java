@@ -0,0 +1,68 @@
+package ru.vzotov.ozon.store;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RecordLogTest {
+
+    @TempDir
+    Path directory;
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testLatestVersionSurvivesReopen() throws IOException {
+        try (RecordLog log = RecordLog.open(directory, 32)) {
+            assertThat(log.put("a", bytes("one"))).isTrue();
+            assertThat(log.put("b", bytes("two"))).isTrue();
+            assertThat(log.put("a", bytes("one"))).isFalse();
+            assertThat(log.put("a", bytes("three"))).isTrue();
+        }
+        assertThat(segments()).isGreaterThan(1);
+        try (RecordLog log = RecordLog.open(directory, 32)) {
+            final Map<String, String> values = new LinkedHashMap<>();
+            log.forEach((key, value) -> values.put(key, new String(value, StandardCharsets.UTF_8)));
+            assertThat(values).containsExactly(Map.entry("b", "two"), Map.entry("a", "three"));
+        }
+    }
+
+    @Test
+    public void testUnflushedRecordsAreRecoveredAndTornTailTruncated() throws IOException {
+        final RecordLog log = RecordLog.open(directory, 1 << 20);
+        log.put("a", bytes("one"));
+        log.flush();
+        log.put("b", bytes("two"));
+        // simulate a crash: the index is not saved, and the last record is torn
+        try (FileChannel segment = FileChannel.open(directory.resolve("segment-00000000.log"), StandardOpenOption.WRITE)) {
+            segment.write(ByteBuffer.wrap(new byte[]{0, 0, 0, 1, 0}), segment.size());
+        }
+
+        try (RecordLog reopened = RecordLog.open(directory, 1 << 20)) {
+            assertThat(reopened.size()).isEqualTo(2);
+            assertThat(reopened.get("b")).isEqualTo(bytes("two"));
+            reopened.put("c", bytes("three"));
+            assertThat(reopened.get("c")).isEqualTo(bytes("three"));
+        }
+    }
+
+    private long segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().startsWith("segment-")).count();
+        }
+    }
+}